@@ -0,0 +1,116 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2018 Luis Pichio.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.luispichio.ajmodbus;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Búsqueda de ADUs válidas (findValidADU / findValidSlaveADU) en buffers de
+ * recepción con una trama precedida por "noise" bytes de ruido (0: buffer
+ * limpio). Además, recepción incremental con el framer (un byte por llamada,
+ * como al leer de la línea).
+ * 
+ * @author Luis Pichio | luispichio@gmail.com | https://sites.google.com/site/luispichio/ | https://github.com/luispichio
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ModbusFramerBenchmark {
+    @Param({"0", "64", "1024"})
+    public int noise;
+    
+    private byte[] mRequest;
+    private int mRequestSize;
+    private byte[] mResponse;
+    private int mResponseSize;
+    private final ModbusRTUFramer.Requests mRequests = new ModbusRTUFramer.Requests();
+    private final ModbusRTUFramer.Responses mResponses = new ModbusRTUFramer.Responses();
+    
+    @Setup
+    public void setup(){
+        Random random = new Random(0);
+        int[] values = new int[ModbusMasterParser.MAX_READ_REGISTERS];
+        for (int i = 0 ; i < values.length ; i++)
+            values[i] = random.nextInt(0x10000);
+        mRequest = new byte[noise + 260];
+        random.nextBytes(mRequest);
+        mRequestSize = noise + ModbusMasterParser.readHoldingRegisters(mRequest, noise, 1, 0, values.length);
+        mResponse = new byte[noise + 260];
+        random.nextBytes(mResponse);
+        mResponseSize = noise + ModbusSlaveParser.readHoldingRegisters(mResponse, noise, 1, 0, values.length, values);
+        if (ModbusSlaveParser.findValidADU(mRequest, mRequestSize) == -1 ||
+                ModbusMasterParser.findValidSlaveADU(mResponse, mResponseSize, 1, ModbusTypes.MODBUS_FUNCTION_READ_HOLDING_REGISTERS) == -1)
+            throw new IllegalStateException("ADU no encontrada");
+    }
+    
+    @Benchmark
+    public int findValidADU(){
+        return ModbusSlaveParser.findValidADU(mRequest, mRequestSize);
+    }
+    
+    @Benchmark
+    public int findValidSlaveADU(){
+        return ModbusMasterParser.findValidSlaveADU(mResponse, mResponseSize, 1, ModbusTypes.MODBUS_FUNCTION_READ_HOLDING_REGISTERS);
+    }
+    
+    /**
+     * Recepción incremental del requerimiento (Esclavo).
+     */
+    @Benchmark
+    public int scanRequests(){
+        mRequests.reset();
+        int offset = -1;
+        for (int size = 1 ; size <= mRequestSize && offset == -1 ; size++)
+            offset = mRequests.scan(mRequest, size, false);
+        return offset;
+    }
+    
+    /**
+     * Recepción incremental de la respuesta (Maestro).
+     */
+    @Benchmark
+    public int scanResponses(){
+        mResponses.expect(1, ModbusTypes.MODBUS_FUNCTION_READ_HOLDING_REGISTERS);
+        int offset = -1;
+        for (int size = 1 ; size <= mResponseSize && offset == -1 ; size++)
+            offset = mResponses.scan(mResponse, size, false);
+        return offset;
+    }
+}
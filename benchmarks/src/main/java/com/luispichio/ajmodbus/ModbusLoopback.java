@@ -0,0 +1,187 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2018 Luis Pichio.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.luispichio.ajmodbus;
+
+import java.io.IOException;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+
+/**
+ * Maestro y Esclavo RTU conectados por streams en memoria
+ * (PipedInputStream / PipedOutputStream). El Maestro es manejado por un
+ * ModbusMasterEngine y el Esclavo (ModbusSlaveDataModel, unidad 1) por un
+ * hilo propio.
+ * Compartido por los benchmarks y las pruebas de extremo a extremo.
+ * 
+ * @author Luis Pichio | luispichio@gmail.com | https://sites.google.com/site/luispichio/ | https://github.com/luispichio
+ */
+class ModbusLoopback implements AutoCloseable {
+    private final PipedOutputStream mMasterOut;
+    private final PipedOutputStream mSlaveOut;
+    private final ModbusSlaveDataModel mModel = new ModbusSlaveDataModel();
+    private final ModbusSlave mSlave;
+    private final Thread mSlaveThread;
+    private volatile boolean mRunning = true;
+    private final Listener mListener = new Listener();
+    private final ModbusMaster mMaster;
+    private final ModbusMasterEngine mEngine;
+    
+    ModbusLoopback() throws IOException {
+        mMasterOut = new PipedOutputStream();
+        PipedInputStream slaveIn = new PipedInputStream(mMasterOut, 1024);
+        mSlaveOut = new PipedOutputStream();
+        PipedInputStream masterIn = new PipedInputStream(mSlaveOut, 1024);
+        
+        mSlave = new ModbusSlave(slaveIn, mSlaveOut, mModel);
+        mSlave.setup(0, 5);
+        mSlaveThread = new Thread(() -> {
+            while (mRunning){
+                mSlave.poll();
+                Thread.yield();
+            }
+        }, "ModbusSlave");
+        mSlaveThread.setDaemon(true);
+        
+        mMaster = new ModbusMaster(masterIn, mMasterOut, mListener);
+        mMaster.setup(1000, 5, 0, 0);
+        mEngine = new ModbusMasterEngine(mMaster);
+    }
+    
+    /**
+     * Inicia el Esclavo y el Maestro.
+     * @return this
+     */
+    ModbusLoopback start(){
+        mSlaveThread.start();
+        mEngine.start();
+        return this;
+    }
+    
+    ModbusMaster master(){
+        return mMaster;
+    }
+    
+    ModbusSlaveDataModel model(){
+        return mModel;
+    }
+    
+    Listener listener(){
+        return mListener;
+    }
+    
+    @Override
+    public void close() throws IOException {
+        mEngine.stop();
+        mRunning = false;
+        try {
+            mSlaveThread.join();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+        mMasterOut.close();
+        mSlaveOut.close();
+    }
+    
+    /**
+     * Listener del Maestro: cuenta tramas enviadas, respuestas y timeouts
+     * sin copiar las tramas de onRX / onTX. Las respuestas de requerimientos
+     * con futuro (ModbusClient) no pasan por aquí.
+     */
+    static class Listener implements ModbusMasterListener {
+        volatile int frames;
+        volatile int responses;
+        volatile int exceptions;
+        volatile int timeouts;
+        
+        @Override
+        public boolean onModbusResponse(ModbusRequest request, ModbusResponse response){
+            responses++;
+            return true;
+        }
+
+        @Override
+        public void onModbusException(ModbusRequest request, ModbusResponse response){
+            exceptions++;
+        }
+
+        @Override
+        public void onModbusTimeOut(ModbusRequest request){
+            timeouts++;
+        }
+
+        @Override
+        public void onRX(byte[] bytes){
+        }
+
+        @Override
+        public void onTX(byte[] bytes){
+            frames++;
+        }
+
+        @Override
+        public void onRX(byte[] bytes, int offset, int length){
+        }
+
+        @Override
+        public void onTX(byte[] bytes, int offset, int length){
+            frames++;
+        }
+
+        @Override
+        public boolean onResponseReadCoils(int slaveAddress, int address, int quantity, boolean[] value){
+            return false;
+        }
+
+        @Override
+        public boolean onResponseReadHoldingRegisters(int slaveAddress, int address, int quantity, int[] value){
+            return false;
+        }
+
+        @Override
+        public boolean onResponseReadInputRegisters(int slaveAddress, int address, int quantity, int[] value){
+            return false;
+        }
+
+        @Override
+        public boolean onResponseWriteSingleCoil(int slaveAddress, int address, boolean value){
+            return false;
+        }
+
+        @Override
+        public boolean onResponseWriteSingleRegister(int slaveAddress, int address, int value){
+            return false;
+        }
+
+        @Override
+        public boolean onResponseWriteMultipleCoils(int slaveAddress, int address, int quantity, boolean[] value){
+            return false;
+        }
+
+        @Override
+        public boolean onResponseWriteMultipleRegisters(int slaveAddress, int address, int quantity, int[] value){
+            return false;
+        }
+    }
+}
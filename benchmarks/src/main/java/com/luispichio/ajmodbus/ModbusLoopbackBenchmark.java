@@ -0,0 +1,91 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2018 Luis Pichio.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.luispichio.ajmodbus;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Transacciones completas Maestro / Esclavo RTU sobre streams en memoria
+ * (ModbusLoopback): encolado, envío, recepción en el Esclavo, respuesta y
+ * entrega al cliente. El resultado es en transacciones por segundo; con
+ * -prof gc se obtiene además la tasa de asignación por transacción
+ * (gc.alloc.rate.norm).
+ * 
+ * @author Luis Pichio | luispichio@gmail.com | https://sites.google.com/site/luispichio/ | https://github.com/luispichio
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ModbusLoopbackBenchmark {
+    /** Cantidad de registros (la escritura se limita a 123) */
+    @Param({"1", "125"})
+    public int quantity;
+    
+    private ModbusLoopback mLoopback;
+    private ModbusClient mClient;
+    private int[] mValues;
+    
+    @Setup
+    public void setup() throws IOException {
+        mLoopback = new ModbusLoopback();
+        for (int i = 0 ; i < quantity ; i++)
+            mLoopback.model().setHoldingRegister(i, i);
+        mLoopback.start();
+        mClient = new ModbusClient(mLoopback.master());
+        mValues = new int[Math.min(quantity, ModbusMasterParser.MAX_WRITE_REGISTERS)];
+    }
+    
+    @TearDown
+    public void tearDown() throws IOException {
+        mLoopback.close();
+    }
+    
+    @Benchmark
+    public int[] readHoldingRegisters() throws ModbusException, TimeoutException, InterruptedException {
+        return mClient.readHoldingRegisters(1, 0, quantity);
+    }
+    
+    @Benchmark
+    public void writeMultipleRegisters() throws ModbusException, TimeoutException, InterruptedException {
+        mClient.writeMultipleRegisters(1, 0, mValues);
+    }
+}
@@ -0,0 +1,196 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2018 Luis Pichio.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.luispichio.ajmodbus;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Codificadores de requerimientos (ModbusMasterParser) y respuestas
+ * (ModbusSlaveParser) sobre un buffer reutilizado, y decodificación de ADUs
+ * (takeResponseFromADU / takeRequestFromADU).
+ * Los codificadores no deben generar basura: verificar con -prof gc
+ * (gc.alloc.rate.norm = 0).
+ * 
+ * @author Luis Pichio | luispichio@gmail.com | https://sites.google.com/site/luispichio/ | https://github.com/luispichio
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ModbusParserBenchmark {
+    private static final int REGISTERS = ModbusMasterParser.MAX_READ_REGISTERS;
+    private static final int COILS = ModbusMasterParser.MAX_READ_COILS;
+    
+    private final byte[] mFrame = new byte[260];
+    private final int[] mValues = new int[REGISTERS];
+    private final ModbusCoils mCoils = new ModbusCoils(COILS);
+    private final ModbusCoils mWriteCoils = new ModbusCoils(ModbusMasterParser.MAX_WRITE_COILS);
+    
+    private final byte[] mRegistersADU = new byte[260];
+    private final byte[] mCoilsADU = new byte[260];
+    private final byte[] mExceptionADU = new byte[260];
+    private final byte[] mRequestADU = new byte[260];
+    private ModbusRequest mRegistersRequest;
+    private ModbusRequest mCoilsRequest;
+    
+    @Setup
+    public void setup(){
+        for (int i = 0 ; i < mValues.length ; i++)
+            mValues[i] = i * 257;
+        for (int i = 0 ; i < COILS ; i++)
+            mCoils.set(i, i % 3 == 0);
+        for (int i = 0 ; i < mWriteCoils.size() ; i++)
+            mWriteCoils.set(i, i % 5 == 0);
+        mRegistersRequest = ModbusRequest.readHoldingRegisters(1, 0, REGISTERS);
+        mCoilsRequest = ModbusRequest.readCoils(1, 0, COILS);
+        ModbusSlaveParser.readHoldingRegisters(mRegistersADU, 0, 1, 0, REGISTERS, mValues);
+        ModbusSlaveParser.readCoils(mCoilsADU, 0, 1, 0, mCoils);
+        ModbusSlaveParser.exception(mExceptionADU, 0, 1, ModbusTypes.MODBUS_FUNCTION_READ_HOLDING_REGISTERS, 2);
+        ModbusMasterParser.writeMultipleRegisters(mRequestADU, 0, 1, 0, ModbusMasterParser.MAX_WRITE_REGISTERS, mValues);
+    }
+    
+    //Maestro: requerimientos
+    
+    @Benchmark
+    public int masterReadCoils(){
+        return ModbusMasterParser.readCoils(mFrame, 0, 1, 0, COILS);
+    }
+    
+    @Benchmark
+    public int masterReadHoldingRegisters(){
+        return ModbusMasterParser.readHoldingRegisters(mFrame, 0, 1, 0, REGISTERS);
+    }
+    
+    @Benchmark
+    public int masterReadInputRegisters(){
+        return ModbusMasterParser.readInputRegisters(mFrame, 0, 1, 0, REGISTERS);
+    }
+    
+    @Benchmark
+    public int masterWriteSingleCoil(){
+        return ModbusMasterParser.writeSingleCoil(mFrame, 0, 1, 10, 0xFF00);
+    }
+    
+    @Benchmark
+    public int masterWriteSingleRegister(){
+        return ModbusMasterParser.writeSingleRegister(mFrame, 0, 1, 10, 0x1234);
+    }
+    
+    @Benchmark
+    public int masterWriteMultipleCoils(){
+        return ModbusMasterParser.writeMultipleCoils(mFrame, 0, 1, 0, mWriteCoils);
+    }
+    
+    @Benchmark
+    public int masterWriteMultipleRegisters(){
+        return ModbusMasterParser.writeMultipleRegisters(mFrame, 0, 1, 0, ModbusMasterParser.MAX_WRITE_REGISTERS, mValues);
+    }
+    
+    @Benchmark
+    public int masterReadFileRecord(){
+        return ModbusMasterParser.readFileRecord(mFrame, 0, 1, 4, 1, 100);
+    }
+    
+    //Esclavo: respuestas
+    
+    @Benchmark
+    public int slaveReadCoils(){
+        return ModbusSlaveParser.readCoils(mFrame, 0, 1, 0, mCoils);
+    }
+    
+    @Benchmark
+    public int slaveReadDiscreteInputs(){
+        return ModbusSlaveParser.readDiscreteInputs(mFrame, 0, 1, 0, mCoils);
+    }
+    
+    @Benchmark
+    public int slaveReadHoldingRegisters(){
+        return ModbusSlaveParser.readHoldingRegisters(mFrame, 0, 1, 0, REGISTERS, mValues);
+    }
+    
+    @Benchmark
+    public int slaveReadInputRegisters(){
+        return ModbusSlaveParser.readInputRegisters(mFrame, 0, 1, 0, REGISTERS, mValues);
+    }
+    
+    @Benchmark
+    public int slaveWriteSingleCoil(){
+        return ModbusSlaveParser.writeSingleCoil(mFrame, 0, 1, 10, 0xFF00);
+    }
+    
+    @Benchmark
+    public int slaveWriteSingleRegister(){
+        return ModbusSlaveParser.writeSingleRegister(mFrame, 0, 1, 10, 0x1234);
+    }
+    
+    @Benchmark
+    public int slaveWriteMultipleCoils(){
+        return ModbusSlaveParser.writeMultipleCoils(mFrame, 0, 1, 0, ModbusMasterParser.MAX_WRITE_COILS);
+    }
+    
+    @Benchmark
+    public int slaveWriteMultipleRegisters(){
+        return ModbusSlaveParser.writeMultipleRegisters(mFrame, 0, 1, 0, ModbusMasterParser.MAX_WRITE_REGISTERS);
+    }
+    
+    @Benchmark
+    public int slaveException(){
+        return ModbusSlaveParser.exception(mFrame, 0, 1, ModbusTypes.MODBUS_FUNCTION_READ_HOLDING_REGISTERS, 2);
+    }
+    
+    //Decodificación
+    
+    @Benchmark
+    public ModbusResponse takeResponseRegisters(){
+        return ModbusMasterParser.takeResponseFromADU(mRegistersADU, 0, mRegistersRequest);
+    }
+    
+    @Benchmark
+    public ModbusResponse takeResponseCoils(){
+        return ModbusMasterParser.takeResponseFromADU(mCoilsADU, 0, mCoilsRequest);
+    }
+    
+    @Benchmark
+    public ModbusResponse takeResponseException(){
+        return ModbusMasterParser.takeResponseFromADU(mExceptionADU, 0, mRegistersRequest);
+    }
+    
+    @Benchmark
+    public ModbusRequest takeRequest(){
+        return ModbusSlaveParser.takeRequestFromADU(mRequestADU, 0);
+    }
+}
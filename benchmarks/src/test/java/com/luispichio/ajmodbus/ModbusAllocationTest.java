@@ -0,0 +1,138 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2018 Luis Pichio.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.luispichio.ajmodbus;
+
+import java.lang.management.ManagementFactory;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Regresión de asignación de memoria: los codificadores de requerimientos y
+ * respuestas (escritura directa en el buffer del llamador) y los framers RTU
+ * no deben generar basura en régimen permanente.
+ * La memoria asignada se mide por hilo (com.sun.management.ThreadMXBean).
+ * 
+ * @author Luis Pichio | luispichio@gmail.com | https://sites.google.com/site/luispichio/ | https://github.com/luispichio
+ */
+public class ModbusAllocationTest {
+    private static final int WARMUP = 20000;
+    private static final int ITERATIONS = 10000;
+    
+    private static com.sun.management.ThreadMXBean sThreads;
+    
+    private final byte[] mFrame = new byte[260];
+    private final int[] mValues = new int[ModbusMasterParser.MAX_READ_REGISTERS];
+    private final ModbusCoils mCoils = new ModbusCoils(ModbusMasterParser.MAX_READ_COILS);
+    private final ModbusCoils mWriteCoils = new ModbusCoils(ModbusMasterParser.MAX_WRITE_COILS);
+    
+    private interface Encoder {
+        int encode();
+    }
+    
+    @BeforeClass
+    public static void setUpClass(){
+        java.lang.management.ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        assumeTrue(threads instanceof com.sun.management.ThreadMXBean);
+        sThreads = (com.sun.management.ThreadMXBean) threads;
+        assumeTrue(sThreads.isThreadAllocatedMemorySupported());
+        sThreads.setThreadAllocatedMemoryEnabled(true);
+    }
+    
+    private static long allocated(){
+        return sThreads.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+    
+    /**
+     * Verifica que el codificador no asigne memoria (en promedio menos de un
+     * byte por llamada, margen para asignaciones ajenas del hilo).
+     */
+    private static void assertAllocationFree(String name, Encoder encoder){
+        int check = 0;
+        for (int i = 0 ; i < WARMUP ; i++)
+            check += encoder.encode();
+        allocated();
+        long before = allocated();
+        for (int i = 0 ; i < ITERATIONS ; i++)
+            check += encoder.encode();
+        long bytes = allocated() - before;
+        assertTrue(name + " sin resultado", check > 0);
+        assertTrue(name + " asigna " + bytes + " bytes en " + ITERATIONS + " llamadas", bytes < ITERATIONS);
+    }
+    
+    @Test
+    public void masterEncoders(){
+        ModbusRequest readRegisters = ModbusRequest.readHoldingRegisters(1, 0, ModbusMasterParser.MAX_READ_REGISTERS);
+        ModbusRequest writeRegisters = ModbusRequest.writeMultipleRegisters(1, 0, ModbusMasterParser.MAX_WRITE_REGISTERS, mValues);
+        ModbusRequest writeCoils = ModbusRequest.writeMultipleCoils(1, 0, mWriteCoils);
+        assertAllocationFree("readCoils", () -> ModbusMasterParser.readCoils(mFrame, 0, 1, 0, ModbusMasterParser.MAX_READ_COILS));
+        assertAllocationFree("readHoldingRegisters", () -> ModbusMasterParser.readHoldingRegisters(mFrame, 0, 1, 0, ModbusMasterParser.MAX_READ_REGISTERS));
+        assertAllocationFree("readInputRegisters", () -> ModbusMasterParser.readInputRegisters(mFrame, 0, 1, 0, ModbusMasterParser.MAX_READ_REGISTERS));
+        assertAllocationFree("writeSingleCoil", () -> ModbusMasterParser.writeSingleCoil(mFrame, 0, 1, 10, 0xFF00));
+        assertAllocationFree("writeSingleRegister", () -> ModbusMasterParser.writeSingleRegister(mFrame, 0, 1, 10, 0x1234));
+        assertAllocationFree("writeMultipleCoils", () -> ModbusMasterParser.writeMultipleCoils(mFrame, 0, 1, 0, mWriteCoils));
+        assertAllocationFree("writeMultipleRegisters", () -> ModbusMasterParser.writeMultipleRegisters(mFrame, 0, 1, 0, ModbusMasterParser.MAX_WRITE_REGISTERS, mValues));
+        assertAllocationFree("readFileRecord", () -> ModbusMasterParser.readFileRecord(mFrame, 0, 1, 4, 1, 100));
+        assertAllocationFree("request(0x03)", () -> ModbusMasterParser.request(mFrame, 0, readRegisters));
+        assertAllocationFree("request(0x10)", () -> ModbusMasterParser.request(mFrame, 0, writeRegisters));
+        assertAllocationFree("request(0x0F)", () -> ModbusMasterParser.request(mFrame, 0, writeCoils));
+    }
+    
+    @Test
+    public void slaveEncoders(){
+        ModbusResponse registers = ModbusResponse.readHoldingRegisters(1, 0, ModbusMasterParser.MAX_READ_REGISTERS, mValues);
+        ModbusResponse exception = ModbusResponse.exception(1, ModbusTypes.MODBUS_FUNCTION_READ_HOLDING_REGISTERS, 2);
+        assertAllocationFree("readCoils", () -> ModbusSlaveParser.readCoils(mFrame, 0, 1, 0, mCoils));
+        assertAllocationFree("readDiscreteInputs", () -> ModbusSlaveParser.readDiscreteInputs(mFrame, 0, 1, 0, mCoils));
+        assertAllocationFree("readHoldingRegisters", () -> ModbusSlaveParser.readHoldingRegisters(mFrame, 0, 1, 0, ModbusMasterParser.MAX_READ_REGISTERS, mValues));
+        assertAllocationFree("readInputRegisters", () -> ModbusSlaveParser.readInputRegisters(mFrame, 0, 1, 0, ModbusMasterParser.MAX_READ_REGISTERS, mValues));
+        assertAllocationFree("writeSingleCoil", () -> ModbusSlaveParser.writeSingleCoil(mFrame, 0, 1, 10, 0xFF00));
+        assertAllocationFree("writeSingleRegister", () -> ModbusSlaveParser.writeSingleRegister(mFrame, 0, 1, 10, 0x1234));
+        assertAllocationFree("writeMultipleCoils", () -> ModbusSlaveParser.writeMultipleCoils(mFrame, 0, 1, 0, ModbusMasterParser.MAX_WRITE_COILS));
+        assertAllocationFree("writeMultipleRegisters", () -> ModbusSlaveParser.writeMultipleRegisters(mFrame, 0, 1, 0, ModbusMasterParser.MAX_WRITE_REGISTERS));
+        assertAllocationFree("exception", () -> ModbusSlaveParser.exception(mFrame, 0, 1, ModbusTypes.MODBUS_FUNCTION_READ_HOLDING_REGISTERS, 2));
+        assertAllocationFree("response(0x03)", () -> ModbusSlaveParser.response(mFrame, 0, registers));
+        assertAllocationFree("response(0x83)", () -> ModbusSlaveParser.response(mFrame, 0, exception));
+    }
+    
+    @Test
+    public void framers(){
+        byte[] request = new byte[260];
+        int requestSize = ModbusMasterParser.readHoldingRegisters(request, 0, 1, 0, ModbusMasterParser.MAX_READ_REGISTERS);
+        byte[] response = new byte[260];
+        int responseSize = ModbusSlaveParser.readHoldingRegisters(response, 0, 1, 0, ModbusMasterParser.MAX_READ_REGISTERS, mValues);
+        ModbusRTUFramer.Requests requests = new ModbusRTUFramer.Requests();
+        ModbusRTUFramer.Responses responses = new ModbusRTUFramer.Responses();
+        assertAllocationFree("Requests.scan", () -> {
+            requests.reset();
+            return requests.scan(request, requestSize, false) + 1;
+        });
+        assertAllocationFree("Responses.scan", () -> {
+            responses.expect(1, ModbusTypes.MODBUS_FUNCTION_READ_HOLDING_REGISTERS);
+            return responses.scan(response, responseSize, false) + 1;
+        });
+    }
+}
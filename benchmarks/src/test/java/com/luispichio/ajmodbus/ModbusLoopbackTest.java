@@ -0,0 +1,134 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2018 Luis Pichio.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.luispichio.ajmodbus;
+
+import java.io.IOException;
+import java.util.concurrent.TimeoutException;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import org.junit.Test;
+
+/**
+ * Maestro y Esclavo RTU de extremo a extremo sobre ModbusLoopback.
+ * 
+ * @author Luis Pichio | luispichio@gmail.com | https://sites.google.com/site/luispichio/ | https://github.com/luispichio
+ */
+public class ModbusLoopbackTest {
+    
+    @Test(timeout = 10000)
+    public void readHoldingRegisters() throws Exception {
+        try (ModbusLoopback loopback = new ModbusLoopback().start()){
+            loopback.model().setHoldingRegisters(10, new int[]{1, 0x1234, 0xFFFF});
+            ModbusClient client = new ModbusClient(loopback.master());
+            assertArrayEquals(new int[]{1, 0x1234, 0xFFFF}, client.readHoldingRegisters(1, 10, 3));
+        }
+    }
+    
+    @Test(timeout = 10000)
+    public void readInputRegisters() throws Exception {
+        try (ModbusLoopback loopback = new ModbusLoopback().start()){
+            loopback.model().setInputRegisters(0, new int[]{7, 8});
+            ModbusClient client = new ModbusClient(loopback.master());
+            assertArrayEquals(new int[]{7, 8}, client.readInputRegisters(1, 0, 2));
+        }
+    }
+    
+    @Test(timeout = 10000)
+    public void readCoils() throws Exception {
+        try (ModbusLoopback loopback = new ModbusLoopback().start()){
+            loopback.model().setCoil(3, true);
+            loopback.model().setCoil(11, true);
+            ModbusClient client = new ModbusClient(loopback.master());
+            boolean[] coils = client.readCoils(1, 0, 12);
+            assertEquals(12, coils.length);
+            for (int i = 0 ; i < coils.length ; i++)
+                assertEquals("coil " + i, i == 3 || i == 11, coils[i]);
+        }
+    }
+    
+    @Test(timeout = 10000)
+    public void writes() throws Exception {
+        try (ModbusLoopback loopback = new ModbusLoopback().start()){
+            ModbusSlaveDataModel model = loopback.model();
+            ModbusClient client = new ModbusClient(loopback.master());
+            client.writeSingleRegister(1, 5, 0xBEEF);
+            assertEquals(0xBEEF, model.getHoldingRegister(5));
+            client.writeMultipleRegisters(1, 20, new int[]{1, 2, 3});
+            assertEquals(1, model.getHoldingRegister(20));
+            assertEquals(2, model.getHoldingRegister(21));
+            assertEquals(3, model.getHoldingRegister(22));
+            client.writeSingleCoil(1, 7, true);
+            assertTrue(model.getCoil(7));
+            client.writeMultipleCoils(1, 30, new boolean[]{true, false, true});
+            assertTrue(model.getCoil(30));
+            assertFalse(model.getCoil(31));
+            assertTrue(model.getCoil(32));
+        }
+    }
+    
+    /**
+     * Un rango fuera del mapa del esclavo se responde con excepción.
+     */
+    @Test(timeout = 10000)
+    public void exceptionResponse() throws IOException, TimeoutException, InterruptedException {
+        try (ModbusLoopback loopback = new ModbusLoopback().start()){
+            ModbusClient client = new ModbusClient(loopback.master());
+            try {
+                client.readHoldingRegisters(1, 0xFFFF, 2);
+                fail("Se esperaba una respuesta de excepción");
+            } catch (ModbusException ex) {
+                assertEquals(ModbusExceptionResponse.ILLEGAL_DATA_ADDRESS, ex.getCode());
+            }
+        }
+    }
+    
+    @Test(timeout = 10000, expected = IllegalArgumentException.class)
+    public void broadcastReadIsRejected() throws Exception {
+        try (ModbusLoopback loopback = new ModbusLoopback().start()){
+            new ModbusClient(loopback.master()).readHoldingRegisters(0, 0, 1);
+        }
+    }
+    
+    /**
+     * Requerimientos sin futuro: las respuestas llegan al listener del
+     * Maestro, una trama por requerimiento.
+     */
+    @Test(timeout = 10000)
+    public void listenerResponses() throws Exception {
+        try (ModbusLoopback loopback = new ModbusLoopback().start()){
+            ModbusMaster master = loopback.master();
+            for (int i = 0 ; i < 10 ; i++)
+                master.readHoldingRegisters(1, i * 10, 1);
+            while (!master.emptyRequestTail())
+                Thread.sleep(1);
+            assertEquals(10, loopback.listener().frames);
+            assertEquals(10, loopback.listener().responses);
+            assertEquals(0, loopback.listener().timeouts);
+        }
+    }
+}
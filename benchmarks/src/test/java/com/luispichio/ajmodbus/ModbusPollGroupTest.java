@@ -0,0 +1,81 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2018 Luis Pichio.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.luispichio.ajmodbus;
+
+import java.io.IOException;
+import static org.junit.Assert.assertEquals;
+import org.junit.Test;
+
+/**
+ * Grupos de lecturas cíclicas sobre ModbusLoopback.
+ * 
+ * @author Luis Pichio | luispichio@gmail.com | https://sites.google.com/site/luispichio/ | https://github.com/luispichio
+ */
+public class ModbusPollGroupTest {
+    
+    private static void awaitCycles(ModbusPollGroup group, long cycles) throws InterruptedException {
+        long end = System.nanoTime() + 5000000000L;
+        while (group.getCycles() < cycles && System.nanoTime() - end < 0)
+            Thread.sleep(1);
+        assertEquals(cycles, group.getCycles());
+    }
+    
+    /**
+     * Las lecturas contiguas de un ciclo se fusionan en una única trama
+     * (agregadas en cualquier orden).
+     */
+    @Test(timeout = 10000)
+    public void adjacentReadsCoalesce() throws IOException, InterruptedException {
+        try (ModbusLoopback loopback = new ModbusLoopback()){
+            ModbusMaster master = loopback.master();
+            master.coalesceGap = 0;
+            ModbusPollGroup group = master.addPollGroup(60000);
+            group.readHoldingRegisters(1, 4, 2)
+                    .readHoldingRegisters(1, 0, 2)
+                    .readHoldingRegisters(1, 2, 2);
+            loopback.start();
+            awaitCycles(group, 1);
+            assertEquals(1, loopback.listener().frames);
+            assertEquals(3, loopback.listener().responses);
+        }
+    }
+    
+    /**
+     * Sin fusión (coalesceGap < 0) cada lectura es una trama.
+     */
+    @Test(timeout = 10000)
+    public void readsAreSentSeparatelyWithoutCoalescing() throws IOException, InterruptedException {
+        try (ModbusLoopback loopback = new ModbusLoopback()){
+            ModbusPollGroup group = loopback.master().addPollGroup(60000);
+            group.readHoldingRegisters(1, 0, 2)
+                    .readHoldingRegisters(1, 2, 2)
+                    .readHoldingRegisters(1, 4, 2);
+            loopback.start();
+            awaitCycles(group, 1);
+            assertEquals(3, loopback.listener().frames);
+            assertEquals(3, loopback.listener().responses);
+        }
+    }
+}
@@ -0,0 +1,246 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2018 Luis Pichio.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package com.luispichio.ajmodbus;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Interfaz asíncrona y thread-safe de un Maestro Modbus (RTU o TCP).
+ * Cada requerimiento retorna un CompletableFuture que se completa con la
+ * respuesta, con ModbusException ante una respuesta de excepción o con
+ * TimeoutException al agotar los reintentos sin respuesta.
+ * 
+ * Los requerimientos se entregan al hilo del Maestro mediante una cola
+ * concurrente sin bloqueo, por lo que múltiples hilos pueden encolar sin
+ * competir por el monitor del Maestro. Los futuros se completan desde el hilo
+ * del Maestro (ModbusMasterEngine): las acciones dependientes que bloqueen
+ * deben usar las variantes *Async de CompletableFuture.
+ * Los requerimientos asíncronos no generan eventos en el ModbusMasterListener.
+ * 
+ * @author Luis Pichio | luispichio@gmail.com | https://sites.google.com/site/luispichio/ | https://github.com/luispichio
+ */
+public class ModbusAsyncMaster {
+    private final ModbusMaster mMaster;
+    private final AtomicInteger mPending = new AtomicInteger();
+    
+    /**
+     * Constructor de la clase
+     * @param master Maestro (manejado por un ModbusMasterEngine o por poll()).
+     */
+    public ModbusAsyncMaster(ModbusMaster master){
+        mMaster = master;
+    }
+    
+    /**
+     * @return Maestro Modbus
+     */
+    public ModbusMaster getMaster(){
+        return mMaster;
+    }
+    
+    /**
+     * Cantidad de requerimientos asíncronos no completados.
+     * @return Cantidad de requerimientos pendientes
+     */
+    public int pendingRequestCount(){
+        return mPending.get();
+    }
+    
+    /**
+     * Encola un requerimiento.
+     * Si no se indicaron reintentos se utilizan los del Maestro.
+     * Un broadcast (esclavo 0) se completa con null al enviarse.
+     * @param request Requerimiento
+     * @return Futuro de la respuesta
+     * @throws IllegalArgumentException si la función no es soportada o la
+     * cantidad excede los límites de Modbus
+     */
+    public CompletableFuture<ModbusNormalResponse> submit(ModbusRequest request){
+        ModbusMaster.validate(request);
+        CompletableFuture<ModbusNormalResponse> future = new CompletableFuture<>();
+        if (request.retrys == 0)
+            request.retrys = mMaster.retrys;
+        request.future = future;
+        mPending.incrementAndGet();
+        future.whenComplete((response, error) -> mPending.decrementAndGet());
+        mMaster.submit(request);
+        return future;
+    }
+    
+    /**
+     * Lectura resuelta desde la imagen de proceso del Maestro si sus valores
+     * tienen a lo sumo maxAge de antigüedad; si no, se encola.
+     * @param request Requerimiento de lectura
+     * @param maxAge Antigüedad máxima [ms]
+     * @return Futuro de la respuesta
+     */
+    public CompletableFuture<ModbusNormalResponse> read(ModbusRequest request, long maxAge){
+        ModbusProcessImage processImage = mMaster.getProcessImage();
+        if (processImage != null){
+            ModbusNormalResponse response = processImage.response(request, maxAge);
+            if (response != null)
+                return CompletableFuture.completedFuture(response);
+        }
+        return submit(request);
+    }
+    
+    /**
+     * Lectura de coils.
+     * Código de función: 0x01
+     * @param slaveAddress Dirección de esclavo.
+     * @param address Dirección de primera Coil.
+     * @param quantity Cantidad de Coil's.
+     * @return Futuro de la respuesta
+     */
+    public CompletableFuture<ModbusNormalResponse> readCoils(int slaveAddress, int address, int quantity){
+        return submit(ModbusRequest.readCoils(slaveAddress, address, quantity));
+    }
+    
+    /**
+     * Lectura de coils desde la imagen de proceso (si es reciente) o el bus.
+     * @param slaveAddress Dirección de esclavo.
+     * @param address Dirección de primera Coil.
+     * @param quantity Cantidad de Coil's.
+     * @param maxAge Antigüedad máxima [ms]
+     * @return Futuro de la respuesta
+     */
+    public CompletableFuture<ModbusNormalResponse> readCoils(int slaveAddress, int address, int quantity, long maxAge){
+        return read(ModbusRequest.readCoils(slaveAddress, address, quantity), maxAge);
+    }
+    
+    /**
+     * Lectura de registros holding.
+     * Código de función: 0x03
+     * @param slaveAddress Dirección de esclavo.
+     * @param address Dirección de primer registro.
+     * @param quantity Cantidad de registros.
+     * @return Futuro de la respuesta
+     */
+    public CompletableFuture<ModbusNormalResponse> readHoldingRegisters(int slaveAddress, int address, int quantity){
+        return submit(ModbusRequest.readHoldingRegisters(slaveAddress, address, quantity));
+    }
+    
+    /**
+     * Lectura de registros holding desde la imagen de proceso (si es
+     * reciente) o el bus.
+     * @param slaveAddress Dirección de esclavo.
+     * @param address Dirección de primer registro.
+     * @param quantity Cantidad de registros.
+     * @param maxAge Antigüedad máxima [ms]
+     * @return Futuro de la respuesta
+     */
+    public CompletableFuture<ModbusNormalResponse> readHoldingRegisters(int slaveAddress, int address, int quantity, long maxAge){
+        return read(ModbusRequest.readHoldingRegisters(slaveAddress, address, quantity), maxAge);
+    }
+    
+    /**
+     * Lectura de registros input.
+     * Código de función: 0x04
+     * @param slaveAddress Dirección de esclavo.
+     * @param address Dirección de primer registro.
+     * @param quantity Cantidad de registros.
+     * @return Futuro de la respuesta
+     */
+    public CompletableFuture<ModbusNormalResponse> readInputRegisters(int slaveAddress, int address, int quantity){
+        return submit(ModbusRequest.readInputRegisters(slaveAddress, address, quantity));
+    }
+    
+    /**
+     * Lectura de registros input desde la imagen de proceso (si es reciente)
+     * o el bus.
+     * @param slaveAddress Dirección de esclavo.
+     * @param address Dirección de primer registro.
+     * @param quantity Cantidad de registros.
+     * @param maxAge Antigüedad máxima [ms]
+     * @return Futuro de la respuesta
+     */
+    public CompletableFuture<ModbusNormalResponse> readInputRegisters(int slaveAddress, int address, int quantity, long maxAge){
+        return read(ModbusRequest.readInputRegisters(slaveAddress, address, quantity), maxAge);
+    }
+    
+    /**
+     * Escritura de coil simple.
+     * Código de función: 0x05
+     * @param slaveAddress Dirección de esclavo.
+     * @param address Dirección del coil.
+     * @param value Valor del coil.
+     * @return Futuro de la respuesta
+     */
+    public CompletableFuture<ModbusNormalResponse> writeSingleCoil(int slaveAddress, int address, boolean value){
+        return submit(ModbusRequest.writeSingleCoil(slaveAddress, address, value));
+    }
+    
+    /**
+     * Escritura de registro holding simple.
+     * Código de función: 0x06
+     * @param slaveAddress Dirección de esclavo.
+     * @param address Dirección del registro a escribir.
+     * @param value Valor a escribir.
+     * @return Futuro de la respuesta
+     */
+    public CompletableFuture<ModbusNormalResponse> writeSingleRegister(int slaveAddress, int address, int value){
+        return submit(ModbusRequest.writeSingleRegister(slaveAddress, address, value));
+    }
+    
+    /**
+     * Escritura de múltiples coil's.
+     * Código de función: 0x0F
+     * @param slaveAddress Dirección de esclavo.
+     * @param address Dirección del primer coil.
+     * @param quantity Cantidad de coils.
+     * @param value Vector con valores a escribir.
+     * @return Futuro de la respuesta
+     */
+    public CompletableFuture<ModbusNormalResponse> writeMultipleCoils(int slaveAddress, int address, int quantity, boolean value[]){
+        return writeMultipleCoils(slaveAddress, address, ModbusCoils.valueOf(value, quantity));
+    }
+    
+    /**
+     * Escritura de múltiples coil's.
+     * Código de función: 0x0F
+     * @param slaveAddress Dirección de esclavo.
+     * @param address Dirección del primer coil.
+     * @param coils Coils a escribir.
+     * @return Futuro de la respuesta
+     */
+    public CompletableFuture<ModbusNormalResponse> writeMultipleCoils(int slaveAddress, int address, ModbusCoils coils){
+        return submit(ModbusRequest.writeMultipleCoils(slaveAddress, address, coils));
+    }
+    
+    /**
+     * Escritura de múltiples registros holding.
+     * Código de función: 0x10
+     * @param slaveAddress Dirección de esclavo.
+     * @param address Dirección del primer registro a escribir.
+     * @param quantity Cantidad de registros.
+     * @param value Vector con valores a escribir.
+     * @return Futuro de la respuesta
+     */
+    public CompletableFuture<ModbusNormalResponse> writeMultipleRegisters(int slaveAddress, int address, int quantity, int value[]){
+        return submit(ModbusRequest.writeMultipleRegisters(slaveAddress, address, quantity, value));
+    }
+}
@@ -0,0 +1,58 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2018 Luis Pichio.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package com.luispichio.ajmodbus;
+
+import java.util.zip.Checksum;
+
+/**
+ * CRC16 Modbus incremental.
+ * Permite verificar las tramas a medida que se reciben los bytes.
+ * 
+ * @author Luis Pichio | luispichio@gmail.com | https://sites.google.com/site/luispichio/ | https://github.com/luispichio
+ */
+public class ModbusCRC16 implements Checksum {
+    private int mCRC = 0xFFFF;
+
+    @Override
+    public void update(int b){
+        mCRC = ModbusUtils.crc16(mCRC, (byte) b);
+    }
+
+    @Override
+    public void update(byte[] b, int off, int len){
+        mCRC = ModbusUtils.crc16(mCRC, b, off, len);
+    }
+
+    @Override
+    public long getValue(){
+        return mCRC;
+    }
+
+    @Override
+    public void reset(){
+        mCRC = 0xFFFF;
+    }
+}
@@ -0,0 +1,249 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2018 Luis Pichio.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package com.luispichio.ajmodbus;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Interfaz sincrónica (bloqueante) de un Maestro Modbus.
+ * Cada llamada encola el requerimiento en el ModbusAsyncMaster y espera su
+ * futuro. La espera no toma monitores (CompletableFuture estaciona el hilo),
+ * por lo que en hilos virtuales no ocupa un hilo de plataforma mientras la
+ * transacción está en curso: miles de tareas lógicas pueden compartir pocas
+ * líneas serie o gateways TCP.
+ * Las lecturas requieren respuesta, por lo que no admiten broadcast
+ * (esclavo 0); las escrituras broadcast retornan al enviarse.
+ * 
+ * @author Luis Pichio | luispichio@gmail.com | https://sites.google.com/site/luispichio/ | https://github.com/luispichio
+ */
+public class ModbusClient {
+    private final ModbusAsyncMaster mMaster;
+    
+    /**
+     * Constructor de la clase
+     * @param master Maestro asíncrono
+     */
+    public ModbusClient(ModbusAsyncMaster master){
+        mMaster = master;
+    }
+    
+    /**
+     * Constructor de la clase
+     * @param master Maestro (manejado por un ModbusMasterEngine)
+     */
+    public ModbusClient(ModbusMaster master){
+        this(new ModbusAsyncMaster(master));
+    }
+    
+    /**
+     * @return Maestro asíncrono
+     */
+    public ModbusAsyncMaster getAsyncMaster(){
+        return mMaster;
+    }
+    
+    /**
+     * @return Dirección de esclavo de una lectura
+     * @throws IllegalArgumentException si es broadcast (sin respuesta)
+     */
+    private static int unicast(int slaveAddress){
+        if (slaveAddress == 0)
+            throw new IllegalArgumentException("Lectura broadcast (esclavo 0) sin respuesta");
+        return slaveAddress;
+    }
+    
+    private static ModbusNormalResponse await(CompletableFuture<ModbusNormalResponse> future) throws ModbusException, TimeoutException, InterruptedException {
+        try {
+            return future.get();
+        } catch (ExecutionException ex) {
+            Throwable cause = ex.getCause();
+            if (cause instanceof ModbusException)
+                throw (ModbusException) cause;
+            if (cause instanceof TimeoutException)
+                throw (TimeoutException) cause;
+            if (cause instanceof RuntimeException)
+                throw (RuntimeException) cause;
+            throw new IllegalStateException(cause);
+        }
+    }
+    
+    /**
+     * Lectura de coils.
+     * Código de función: 0x01
+     * @param slaveAddress Dirección de esclavo.
+     * @param address Dirección de primera Coil.
+     * @param quantity Cantidad de Coil's.
+     * @return Valores de las coils
+     * @throws ModbusException Respuesta de excepción del esclavo
+     * @throws TimeoutException Sin respuesta (reintentos agotados)
+     * @throws InterruptedException
+     * @throws IllegalArgumentException si slaveAddress es 0 (broadcast)
+     */
+    public boolean[] readCoils(int slaveAddress, int address, int quantity) throws ModbusException, TimeoutException, InterruptedException {
+        return await(mMaster.readCoils(unicast(slaveAddress), address, quantity)).coils.toBooleanArray();
+    }
+    
+    /**
+     * Lectura de coils desde la imagen de proceso del Maestro si es reciente
+     * (sin acceso al bus) o desde el esclavo.
+     * @param slaveAddress Dirección de esclavo.
+     * @param address Dirección de primera Coil.
+     * @param quantity Cantidad de Coil's.
+     * @param maxAge Antigüedad máxima [ms]
+     * @return Valores de las coils
+     * @throws ModbusException Respuesta de excepción del esclavo
+     * @throws TimeoutException Sin respuesta (reintentos agotados)
+     * @throws InterruptedException
+     * @throws IllegalArgumentException si slaveAddress es 0 (broadcast)
+     */
+    public boolean[] readCoils(int slaveAddress, int address, int quantity, long maxAge) throws ModbusException, TimeoutException, InterruptedException {
+        return await(mMaster.readCoils(unicast(slaveAddress), address, quantity, maxAge)).coils.toBooleanArray();
+    }
+    
+    /**
+     * Lectura de registros holding.
+     * Código de función: 0x03
+     * @param slaveAddress Dirección de esclavo.
+     * @param address Dirección de primer registro.
+     * @param quantity Cantidad de registros.
+     * @return Valores de los registros
+     * @throws ModbusException Respuesta de excepción del esclavo
+     * @throws TimeoutException Sin respuesta (reintentos agotados)
+     * @throws InterruptedException
+     * @throws IllegalArgumentException si slaveAddress es 0 (broadcast)
+     */
+    public int[] readHoldingRegisters(int slaveAddress, int address, int quantity) throws ModbusException, TimeoutException, InterruptedException {
+        return await(mMaster.readHoldingRegisters(unicast(slaveAddress), address, quantity)).value;
+    }
+    
+    /**
+     * Lectura de registros holding desde la imagen de proceso del Maestro si
+     * es reciente (sin acceso al bus) o desde el esclavo.
+     * @param slaveAddress Dirección de esclavo.
+     * @param address Dirección de primer registro.
+     * @param quantity Cantidad de registros.
+     * @param maxAge Antigüedad máxima [ms]
+     * @return Valores de los registros
+     * @throws ModbusException Respuesta de excepción del esclavo
+     * @throws TimeoutException Sin respuesta (reintentos agotados)
+     * @throws InterruptedException
+     * @throws IllegalArgumentException si slaveAddress es 0 (broadcast)
+     */
+    public int[] readHoldingRegisters(int slaveAddress, int address, int quantity, long maxAge) throws ModbusException, TimeoutException, InterruptedException {
+        return await(mMaster.readHoldingRegisters(unicast(slaveAddress), address, quantity, maxAge)).value;
+    }
+    
+    /**
+     * Lectura de registros input.
+     * Código de función: 0x04
+     * @param slaveAddress Dirección de esclavo.
+     * @param address Dirección de primer registro.
+     * @param quantity Cantidad de registros.
+     * @return Valores de los registros
+     * @throws ModbusException Respuesta de excepción del esclavo
+     * @throws TimeoutException Sin respuesta (reintentos agotados)
+     * @throws InterruptedException
+     * @throws IllegalArgumentException si slaveAddress es 0 (broadcast)
+     */
+    public int[] readInputRegisters(int slaveAddress, int address, int quantity) throws ModbusException, TimeoutException, InterruptedException {
+        return await(mMaster.readInputRegisters(unicast(slaveAddress), address, quantity)).value;
+    }
+    
+    /**
+     * Lectura de registros input desde la imagen de proceso del Maestro si es
+     * reciente (sin acceso al bus) o desde el esclavo.
+     * @param slaveAddress Dirección de esclavo.
+     * @param address Dirección de primer registro.
+     * @param quantity Cantidad de registros.
+     * @param maxAge Antigüedad máxima [ms]
+     * @return Valores de los registros
+     * @throws ModbusException Respuesta de excepción del esclavo
+     * @throws TimeoutException Sin respuesta (reintentos agotados)
+     * @throws InterruptedException
+     * @throws IllegalArgumentException si slaveAddress es 0 (broadcast)
+     */
+    public int[] readInputRegisters(int slaveAddress, int address, int quantity, long maxAge) throws ModbusException, TimeoutException, InterruptedException {
+        return await(mMaster.readInputRegisters(unicast(slaveAddress), address, quantity, maxAge)).value;
+    }
+    
+    /**
+     * Escritura de coil simple.
+     * Código de función: 0x05
+     * @param slaveAddress Dirección de esclavo.
+     * @param address Dirección del coil.
+     * @param value Valor del coil.
+     * @throws ModbusException Respuesta de excepción del esclavo
+     * @throws TimeoutException Sin respuesta (reintentos agotados)
+     * @throws InterruptedException
+     */
+    public void writeSingleCoil(int slaveAddress, int address, boolean value) throws ModbusException, TimeoutException, InterruptedException {
+        await(mMaster.writeSingleCoil(slaveAddress, address, value));
+    }
+    
+    /**
+     * Escritura de registro holding simple.
+     * Código de función: 0x06
+     * @param slaveAddress Dirección de esclavo.
+     * @param address Dirección del registro a escribir.
+     * @param value Valor a escribir.
+     * @throws ModbusException Respuesta de excepción del esclavo
+     * @throws TimeoutException Sin respuesta (reintentos agotados)
+     * @throws InterruptedException
+     */
+    public void writeSingleRegister(int slaveAddress, int address, int value) throws ModbusException, TimeoutException, InterruptedException {
+        await(mMaster.writeSingleRegister(slaveAddress, address, value));
+    }
+    
+    /**
+     * Escritura de múltiples coil's.
+     * Código de función: 0x0F
+     * @param slaveAddress Dirección de esclavo.
+     * @param address Dirección del primer coil.
+     * @param value Vector con valores a escribir.
+     * @throws ModbusException Respuesta de excepción del esclavo
+     * @throws TimeoutException Sin respuesta (reintentos agotados)
+     * @throws InterruptedException
+     */
+    public void writeMultipleCoils(int slaveAddress, int address, boolean value[]) throws ModbusException, TimeoutException, InterruptedException {
+        await(mMaster.writeMultipleCoils(slaveAddress, address, value.length, value));
+    }
+    
+    /**
+     * Escritura de múltiples registros holding.
+     * Código de función: 0x10
+     * @param slaveAddress Dirección de esclavo.
+     * @param address Dirección del primer registro a escribir.
+     * @param value Vector con valores a escribir.
+     * @throws ModbusException Respuesta de excepción del esclavo
+     * @throws TimeoutException Sin respuesta (reintentos agotados)
+     * @throws InterruptedException
+     */
+    public void writeMultipleRegisters(int slaveAddress, int address, int value[]) throws ModbusException, TimeoutException, InterruptedException {
+        await(mMaster.writeMultipleRegisters(slaveAddress, address, value.length, value));
+    }
+}
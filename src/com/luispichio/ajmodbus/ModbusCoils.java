@@ -0,0 +1,192 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2018 Luis Pichio.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package com.luispichio.ajmodbus;
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * Coils (o entradas discretas) empaquetados de a 64 por palabra.
+ * Es la representación que viaja entre tramas, requerimientos, respuestas y
+ * "escuchadores"; los bits se desempaquetan sólo cuando la aplicación lo
+ * solicita (toBooleanArray, toIntArray, toBitSet).
+ * El bit i corresponde a la dirección (primera + i).
+ * 
+ * @author Luis Pichio | luispichio@gmail.com | https://sites.google.com/site/luispichio/ | https://github.com/luispichio
+ */
+public final class ModbusCoils {
+    private final long[] mWords;
+    private final int mSize;
+    
+    /**
+     * @param size Cantidad de coils (inicialmente apagados)
+     */
+    public ModbusCoils(int size){
+        mSize = size;
+        mWords = new long[(size + 63) >> 6];
+    }
+    
+    public static ModbusCoils valueOf(boolean[] value){
+        return valueOf(value, value.length);
+    }
+    
+    /**
+     * @param value Valores
+     * @param quantity Cantidad de coils (los faltantes quedan apagados)
+     * @return Coils empaquetados
+     */
+    public static ModbusCoils valueOf(boolean[] value, int quantity){
+        ModbusCoils coils = new ModbusCoils(quantity);
+        for (int i = 0 ; i < Math.min(quantity, value.length) ; i++)
+            if (value[i])
+                coils.mWords[i >> 6] |= 1L << i;
+        return coils;
+    }
+    
+    /**
+     * @param value Valores (distinto de 0: encendido; p.e. 0xFF00)
+     * @param quantity Cantidad de coils (los faltantes quedan apagados)
+     * @return Coils empaquetados
+     */
+    public static ModbusCoils valueOf(int[] value, int quantity){
+        ModbusCoils coils = new ModbusCoils(quantity);
+        for (int i = 0 ; i < Math.min(quantity, value.length) ; i++)
+            if (value[i] != 0)
+                coils.mWords[i >> 6] |= 1L << i;
+        return coils;
+    }
+    
+    /**
+     * Coils tal como viajan en la trama (8 por byte, bit menos significativo
+     * primero).
+     * @param frame Buffer
+     * @param offset Posición del primer byte de datos
+     * @param quantity Cantidad de coils
+     * @return Coils empaquetados
+     */
+    public static ModbusCoils valueOf(byte[] frame, int offset, int quantity){
+        ModbusCoils coils = new ModbusCoils(quantity);
+        int byteCount = (quantity + 7) >> 3;
+        for (int i = 0 ; i < byteCount ; i++)
+            coils.mWords[i >> 3] |= (frame[offset + i] & 0xFFL) << ((i & 7) << 3);
+        coils.trim();
+        return coils;
+    }
+    
+    private void trim(){
+        if ((mSize & 63) != 0)
+            mWords[mWords.length - 1] &= -1L >>> (64 - (mSize & 63));
+    }
+    
+    public int size(){
+        return mSize;
+    }
+    
+    public boolean get(int index){
+        return (mWords[index >> 6] & (1L << index)) != 0;
+    }
+    
+    public void set(int index, boolean value){
+        if (value)
+            mWords[index >> 6] |= 1L << index;
+        else
+            mWords[index >> 6] &= ~(1L << index);
+    }
+    
+    /**
+     * @param from Primer coil (incluido)
+     * @param to Último coil (excluido)
+     * @return Copia del rango [from, to)
+     */
+    public ModbusCoils get(int from, int to){
+        ModbusCoils coils = new ModbusCoils(to - from);
+        int shift = from & 63;
+        for (int i = 0, w = from >> 6 ; i < coils.mWords.length ; i++, w++){
+            long word = mWords[w] >>> shift;
+            if (shift != 0 && w + 1 < mWords.length)
+                word |= mWords[w + 1] << (64 - shift);
+            coils.mWords[i] = word;
+        }
+        coils.trim();
+        return coils;
+    }
+    
+    /**
+     * Escribe los coils en formato de trama (8 por byte, bit menos
+     * significativo primero).
+     * @param frame Buffer destino
+     * @param offset Posición del primer byte
+     * @return Cantidad de bytes escritos
+     */
+    public int put(byte[] frame, int offset){
+        int byteCount = (mSize + 7) >> 3;
+        for (int i = 0 ; i < byteCount ; i++)
+            frame[offset + i] = (byte) (mWords[i >> 3] >>> ((i & 7) << 3));
+        return byteCount;
+    }
+    
+    public boolean[] toBooleanArray(){
+        boolean[] result = new boolean[mSize];
+        for (int i = 0 ; i < mSize ; i++)
+            result[i] = get(i);
+        return result;
+    }
+    
+    /**
+     * @return Un entero por coil (0xFF00 / 0x0000)
+     */
+    public int[] toIntArray(){
+        int[] result = new int[mSize];
+        for (int i = 0 ; i < mSize ; i++)
+            result[i] = get(i) ? 0xFF00 : 0x0000;
+        return result;
+    }
+    
+    public BitSet toBitSet(){
+        return BitSet.valueOf(mWords);
+    }
+    
+    @Override
+    public boolean equals(Object o){
+        if (!(o instanceof ModbusCoils))
+            return false;
+        ModbusCoils coils = (ModbusCoils) o;
+        return mSize == coils.mSize && Arrays.equals(mWords, coils.mWords);
+    }
+    
+    @Override
+    public int hashCode(){
+        return 31 * mSize + Arrays.hashCode(mWords);
+    }
+    
+    @Override
+    public String toString(){
+        StringBuilder result = new StringBuilder(mSize);
+        for (int i = 0 ; i < mSize ; i++)
+            result.append(get(i) ? '1' : '0');
+        return result.toString();
+    }
+}
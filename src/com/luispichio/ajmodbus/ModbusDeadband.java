@@ -0,0 +1,54 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2018 Luis Pichio.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package com.luispichio.ajmodbus;
+
+/**
+ * Tipo de banda muerta (reporte por excepción) de la imagen de proceso.
+ * Se evalúa contra el último valor reportado (no contra la última lectura)
+ * para que cambios lentos acumulados también se reporten.
+ * 
+ * @author Luis Pichio | luispichio@gmail.com | https://sites.google.com/site/luispichio/ | https://github.com/luispichio
+ */
+public enum ModbusDeadband {
+    /**
+     * Se reporta cualquier cambio.
+     */
+    NONE,
+    /**
+     * Se reporta si |valor - reportado| supera la banda.
+     */
+    ABSOLUTE,
+    /**
+     * Se reporta si |valor - reportado| supera el porcentaje indicado del
+     * valor reportado.
+     */
+    PERCENT,
+    /**
+     * Se reporta si cambia alguno de los bits de la máscara (palabras de
+     * estado; en coils una máscara nula deshabilita el reporte).
+     */
+    MASK,
+}
@@ -0,0 +1,56 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2018 Luis Pichio.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package com.luispichio.ajmodbus;
+
+/**
+ * Respuesta de excepción de un esclavo Modbus (ModbusAsyncMaster).
+ * 
+ * @author Luis Pichio | luispichio@gmail.com | https://sites.google.com/site/luispichio/ | https://github.com/luispichio
+ */
+public class ModbusException extends Exception {
+    private static final long serialVersionUID = 1L;
+    
+    private final ModbusExceptionResponse mResponse;
+    
+    public ModbusException(ModbusExceptionResponse response){
+        super(String.format("Excepción Modbus 0x%02X (esclavo %d, función 0x%02X)", response.code, response.slaveAddress, response.function & 0x7F));
+        mResponse = response;
+    }
+    
+    /**
+     * @return Respuesta de excepción
+     */
+    public ModbusExceptionResponse getResponse(){
+        return mResponse;
+    }
+    
+    /**
+     * @return Código de excepción (ModbusExceptionResponse.ILLEGAL_FUNCTION, ...)
+     */
+    public int getCode(){
+        return mResponse.code;
+    }
+}
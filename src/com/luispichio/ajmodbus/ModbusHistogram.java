@@ -0,0 +1,119 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2018 Luis Pichio.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package com.luispichio.ajmodbus;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Histograma log-lineal (estilo HDR) de registro sin bloqueos.
+ * Cada potencia de 2 se divide en 16 intervalos (error relativo máximo
+ * ~6%); los valores menores a 16 son exactos. Pensado para latencias en
+ * microsegundos.
+ * 
+ * @author Luis Pichio | luispichio@gmail.com | https://sites.google.com/site/luispichio/ | https://github.com/luispichio
+ */
+public class ModbusHistogram {
+    private static final int SUB_BITS = 4;
+    private static final int SUB_COUNT = 1 << SUB_BITS;
+    private static final int BUCKETS = (64 - SUB_BITS + 1) * SUB_COUNT;
+    
+    private final AtomicLongArray mCounts = new AtomicLongArray(BUCKETS);
+    private final LongAdder mCount = new LongAdder();
+    private final LongAdder mSum = new LongAdder();
+    private final LongAccumulator mMax = new LongAccumulator(Math::max, 0);
+    
+    static int index(long value){
+        if (value < SUB_COUNT)
+            return (int) value;
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int sub = (int) (value >>> (exponent - SUB_BITS)) & (SUB_COUNT - 1);
+        return (exponent - SUB_BITS + 1) * SUB_COUNT + sub;
+    }
+    
+    static long lowerBound(int index){
+        if (index < SUB_COUNT)
+            return index;
+        int exponent = index / SUB_COUNT + SUB_BITS - 1;
+        return (long) (SUB_COUNT + index % SUB_COUNT) << (exponent - SUB_BITS);
+    }
+    
+    /**
+     * Registra un valor (los negativos se registran como 0).
+     * @param value Valor
+     */
+    public void record(long value){
+        if (value < 0)
+            value = 0;
+        mCounts.incrementAndGet(index(value));
+        mCount.increment();
+        mSum.add(value);
+        mMax.accumulate(value);
+    }
+    
+    public long getCount(){
+        return mCount.sum();
+    }
+    
+    public double getMean(){
+        long count = mCount.sum();
+        return count == 0 ? 0 : (double) mSum.sum() / count;
+    }
+    
+    public long getMax(){
+        return mMax.get();
+    }
+    
+    /**
+     * @param percentile Percentil (0 .. 100)
+     * @return Límite inferior del intervalo que contiene el percentil (0 si
+     * no hay registros)
+     */
+    public long getValueAtPercentile(double percentile){
+        long total = 0;
+        for (int i = 0 ; i < BUCKETS ; i++)
+            total += mCounts.get(i);
+        if (total == 0)
+            return 0;
+        long target = Math.max(1, (long) Math.ceil(total * Math.min(percentile, 100) / 100));
+        long count = 0;
+        for (int i = 0 ; i < BUCKETS ; i++){
+            count += mCounts.get(i);
+            if (count >= target)
+                return Math.min(lowerBound(i), getMax());
+        }
+        return getMax();
+    }
+    
+    public void reset(){
+        for (int i = 0 ; i < BUCKETS ; i++)
+            mCounts.set(i, 0);
+        mCount.reset();
+        mSum.reset();
+        mMax.reset();
+    }
+}
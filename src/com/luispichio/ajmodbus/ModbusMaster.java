@@ -28,7 +28,13 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.util.ArrayList;
-import java.util.Arrays;
+import java.util.Collection;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeoutException;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -38,22 +44,109 @@ import java.util.logging.Logger;
  */
 public class ModbusMaster {
     private ModbusMasterState mState = ModbusMasterState.STATE_IDLE;
-    private final ModbusMasterListener mListener;
+    final ModbusMasterListener mListener;
     public int responseTimeOut;
     public int frameTimeOut;
     public int turnAroundDelay;
     public int retrys;
+    /**
+     * Separación máxima (registros / coils) entre lecturas encoladas de un
+     * mismo esclavo y función para fusionarlas en un único requerimiento.
+     * -1 deshabilita la fusión.
+     */
+    public int coalesceGap = -1;
+    /**
+     * Cantidad máxima de requerimientos en cola.
+     */
+    public int queueCapacity = Integer.MAX_VALUE;
+    /**
+     * Política ante cola llena.
+     */
+    public ModbusOverflowPolicy overflowPolicy = ModbusOverflowPolicy.REJECT;
+    /**
+     * Timeout de respuesta adaptativo: cada esclavo utiliza un timeout
+     * estimado de sus tiempos de respuesta (SRTT + 4 * RTTVAR) entre
+     * minResponseTimeOut y responseTimeOut (valor inicial, sin muestras).
+     */
+    public boolean adaptiveTimeOut;
+    /**
+     * Timeout de respuesta mínimo [ms] (timeout adaptativo).
+     */
+    public int minResponseTimeOut = 20;
+    /**
+     * Timeouts consecutivos tras los cuales un esclavo pasa a "fuera de
+     * línea": sus requerimientos se descartan sin enviarse (ver
+     * ModbusMasterListener.onModbusRequestDropped) salvo sondeos periódicos
+     * sin reintentos. 0 deshabilita.
+     */
+    public int offlineThreshold;
+    /**
+     * Espera inicial [ms] entre sondeos a un esclavo fuera de línea (se
+     * duplica con cada sondeo fallido).
+     */
+    public int offlineProbeDelay = 1000;
+    /**
+     * Espera máxima [ms] entre sondeos a un esclavo fuera de línea.
+     */
+    public int offlineProbeMaxDelay = 60000;
+    /**
+     * Espera inicial [ms] antes de reintentar un requerimiento fallido (se
+     * duplica con cada reintento). Mientras tanto el esclavo queda diferido y
+     * se atienden requerimientos a otros esclavos. 0 reintenta de inmediato.
+     */
+    public int retryDelay;
+    /**
+     * Espera máxima [ms] entre reintentos.
+     */
+    public int retryMaxDelay = 5000;
+    /**
+     * Fracción aleatoria (0 a 1) de la espera entre reintentos que se
+     * descuenta, para que esclavos que fallan juntos no reintenten juntos.
+     */
+    public double retryJitter = 0.5;
+    /**
+     * Plazo [ms] desde el encolado tras el cual un requerimiento se abandona
+     * (ver ModbusRequest.deadline). 0 sin plazo.
+     */
+    public int requestDeadline;
+    /**
+     * Tiempos RTU derivados de la velocidad de la línea: el fin de trama y la
+     * separación entre tramas pasan a ser t3.5 (en lugar de frameTimeOut y
+     * turnAroundDelay, éste último sólo se respeta tras un broadcast) y se
+     * considera la duración de la transmisión. null utiliza frameTimeOut y
+     * turnAroundDelay.
+     */
+    public ModbusRTUTiming timing;
 
     private final InputStream mInputStream;
     private final OutputStream mOutputStream;
 
-    private final byte[] mRXBuffer = new byte[8192];
-    private int mRXBufferSize = 0;
+    final byte[] mRXBuffer = new byte[8192];
+    int mRXBufferSize = 0;
+    final byte[] mTXBuffer = new byte[512];
+    private final ModbusRTUFramer.Responses mFramer = new ModbusRTUFramer.Responses();
+    private int mResponseOffset = -1;
+    /**
+     * Instantes [ns] de última recepción y de fin de última transmisión.
+     */
     long mLastRX;
     long mLastTX;
+    private boolean mBroadcast;
     
-    private final ArrayList<ModbusRequest> mRequestTail;
+    final ModbusRequestQueue mRequestTail;
     private ModbusRequest mCurrentRequest;
+    private final ArrayList<ModbusPollGroup> mPollGroups = new ArrayList<>();
+    private final ConcurrentLinkedQueue<ModbusRequest> mSubmissions = new ConcurrentLinkedQueue<>();
+    
+    volatile ModbusMasterEngine mEngine;
+    private volatile ModbusProcessImage mProcessImage;
+    private final ModbusResponseView mResponseView = new ModbusResponseView();
+    final ModbusMetrics mMetrics = new ModbusMetrics(this);
+    final ModbusTimeOutEstimator mTimeOuts = new ModbusTimeOutEstimator();
+    private final ModbusSlaveHealth mHealth = new ModbusSlaveHealth();
+    private long mFirstRX;
+    volatile boolean mEvent = true;
+    long mNextEventTime;
     
     /**
      * Constructor de la clase
@@ -65,9 +158,9 @@ public class ModbusMaster {
         mInputStream = inputStream;
         mOutputStream = outputStream;
         mListener = listener;
-        mRequestTail = new ArrayList<>();
-        mLastRX = System.currentTimeMillis();
-        mLastTX = System.currentTimeMillis();
+        mRequestTail = new ModbusRequestQueue();
+        mLastRX = System.nanoTime();
+        mLastTX = System.nanoTime();
         setup(1000, 10, 300, 0);
     }
 
@@ -100,17 +193,12 @@ public class ModbusMaster {
      * @param slaveAddress Dirección de esclavo.
      * @param address Dirección de primera Coil.
      * @param quantity Cantidad de Coil's.
-     * @return true
+     * @return true si fue encolado (false si la cola está llena)
      */
     public boolean readCoils(int slaveAddress, int address, int quantity){
-        ModbusRequest request = new ModbusRequest();
-        request.function = ModbusTypes.MODBUS_FUNCTION_READ_COILS;
-        request.slaveAddress = slaveAddress;
-        request.address = address;
-        request.quantity = quantity;
+        ModbusRequest request = ModbusRequest.readCoils(slaveAddress, address, quantity);
         request.retrys = retrys;
-        mRequestTail.add(request);
-        return true;
+        return enqueue(request);
     }
     
     /**
@@ -119,17 +207,12 @@ public class ModbusMaster {
      * @param slaveAddress Dirección de esclavo.
      * @param address Dirección de primer registro.
      * @param quantity Cantidad de registros.
-     * @return true
+     * @return true si fue encolado (false si la cola está llena)
      */
     public boolean readHoldingRegisters(int slaveAddress, int address, int quantity){
-        ModbusRequest request = new ModbusRequest();
-        request.function = ModbusTypes.MODBUS_FUNCTION_READ_HOLDING_REGISTERS;
-        request.slaveAddress = slaveAddress;
-        request.address = address;
-        request.quantity = quantity;
+        ModbusRequest request = ModbusRequest.readHoldingRegisters(slaveAddress, address, quantity);
         request.retrys = retrys;
-        mRequestTail.add(request);
-        return true;
+        return enqueue(request);
     }
     
     /**
@@ -138,17 +221,12 @@ public class ModbusMaster {
      * @param slaveAddress Dirección de esclavo.
      * @param address Dirección de primer registro.
      * @param quantity Cantidad de registros.
-     * @return true
+     * @return true si fue encolado (false si la cola está llena)
      */
     public boolean readInputRegisters(int slaveAddress, int address, int quantity){
-        ModbusRequest request = new ModbusRequest();
-        request.function = ModbusTypes.MODBUS_FUNCTION_READ_INPUT_REGISTERS;
-        request.slaveAddress = slaveAddress;
-        request.address = address;
-        request.quantity = quantity;
-        request.retrys = retrys;        
-        mRequestTail.add(request);
-        return true;
+        ModbusRequest request = ModbusRequest.readInputRegisters(slaveAddress, address, quantity);
+        request.retrys = retrys;
+        return enqueue(request);
     }
     
     /**
@@ -157,18 +235,12 @@ public class ModbusMaster {
      * @param slaveAddress Dirección de esclavo.
      * @param address Dirección del ooil
      * @param value Valor del coil
-     * @return true
+     * @return true si fue encolado (false si la cola está llena)
      */
     public boolean writeSingleCoil(int slaveAddress, int address, boolean value){
-        ModbusRequest request = new ModbusRequest();
-        request.function = ModbusTypes.MODBUS_FUNCTION_WRITE_SINGLE_COIL;
-        request.slaveAddress = slaveAddress;
-        request.address = address;
-        request.value = new int[1];
-        request.value[0] = value ? 0xFF00 : 0x0000;
+        ModbusRequest request = ModbusRequest.writeSingleCoil(slaveAddress, address, value);
         request.retrys = retrys;
-        mRequestTail.add(request);
-        return true;
+        return enqueue(request);
     }
     
     /**
@@ -177,18 +249,12 @@ public class ModbusMaster {
      * @param slaveAddress Dirección de esclavo.
      * @param address Dirección del registro a escribir.
      * @param value Valor a escribir.
-     * @return true
+     * @return true si fue encolado (false si la cola está llena)
      */
     public boolean writeSingleRegister(int slaveAddress, int address, int value){
-        ModbusRequest request = new ModbusRequest();
-        request.function = ModbusTypes.MODBUS_FUNCTION_WRITE_SINGLE_REGISTER;
-        request.slaveAddress = slaveAddress;
-        request.address = address;
-        request.value = new int[1];
-        request.value[0] = value;
+        ModbusRequest request = ModbusRequest.writeSingleRegister(slaveAddress, address, value);
         request.retrys = retrys;
-        mRequestTail.add(request);
-        return true;
+        return enqueue(request);
     }
 
     /**
@@ -198,18 +264,12 @@ public class ModbusMaster {
      * @param address Dirección del primer coil.
      * @param quantity Cantidad de coils.
      * @param value Vector con valores a escribir.
-     * @return true
+     * @return true si fue encolado (false si la cola está llena)
      */
     public boolean writeMultipleCoils(int slaveAddress, int address, int quantity, int value[]){
-        ModbusRequest request = new ModbusRequest();
-        request.function = ModbusTypes.MODBUS_FUNCTION_WRITE_MULTIPLE_COILS;
-        request.slaveAddress = slaveAddress;
-        request.address = address;
-        request.quantity = quantity;
-        request.value = value;
+        ModbusRequest request = ModbusRequest.writeMultipleCoils(slaveAddress, address, quantity, value);
         request.retrys = retrys;
-        mRequestTail.add(request);
-        return true;
+        return enqueue(request);
     }
 
     /**
@@ -219,10 +279,24 @@ public class ModbusMaster {
      * @param address Dirección del primer coil.
      * @param quantity Cantidad de coils.
      * @param value Vector con valores a escribir.
-     * @return true
+     * @return true si fue encolado (false si la cola está llena)
      */
     public boolean writeMultipleCoils(int slaveAddress, int address, int quantity, boolean value[]){
-        return writeMultipleCoils(slaveAddress, address, quantity, ModbusUtils.boolean2int(value));
+        return writeMultipleCoils(slaveAddress, address, ModbusCoils.valueOf(value, quantity));
+    }
+
+    /**
+     * Escritura de múltiples coil's.
+     * Código de función: 0x0F
+     * @param slaveAddress Dirección de esclavo.
+     * @param address Dirección del primer coil.
+     * @param coils Coils a escribir.
+     * @return true si fue encolado (false si la cola está llena)
+     */
+    public boolean writeMultipleCoils(int slaveAddress, int address, ModbusCoils coils){
+        ModbusRequest request = ModbusRequest.writeMultipleCoils(slaveAddress, address, coils);
+        request.retrys = retrys;
+        return enqueue(request);
     }
 
     /**
@@ -232,18 +306,12 @@ public class ModbusMaster {
      * @param address Dirección del primer registro a escribir.
      * @param quantity Cantidad de registros.
      * @param value Vector con valores a escribir.
-     * @return true
+     * @return true si fue encolado (false si la cola está llena)
      */
     public boolean writeMultipleRegisters(int slaveAddress, int address, int quantity, int value[]){
-        ModbusRequest request = new ModbusRequest();
-        request.function = ModbusTypes.MODBUS_FUNCTION_WRITE_MULTIPLE_REGISTERS;
-        request.slaveAddress = slaveAddress;
-        request.address = address;
-        request.quantity = quantity;
-        request.value = Arrays.copyOf(value, quantity);
+        ModbusRequest request = ModbusRequest.writeMultipleRegisters(slaveAddress, address, quantity, value);
         request.retrys = retrys;
-        mRequestTail.add(request);
-        return true;
+        return enqueue(request);
     }
 
     /**
@@ -254,76 +322,465 @@ public class ModbusMaster {
      * @return 
      */
     public boolean readFileRecord(int slaveAddress, int fileNumber, int recordNumber, int recordLength){
-        ModbusRequest request = new ModbusRequest();
-        request.function = ModbusTypes.MODBUS_FUNCTION_READ_FILE_RECORD;
-        request.slaveAddress = slaveAddress;
-        request.fileNumber = fileNumber;
-        request.recordNumber = recordNumber;
-        request.recordLength = recordLength;
+        ModbusRequest request = ModbusRequest.readFileRecord(slaveAddress, fileNumber, recordNumber, recordLength);
         request.retrys = retrys;
-        mRequestTail.add(request);
-        return true;
+        return enqueue(request);
     }    
+    
+    /**
+     * Encola (para posterior envío) un requerimiento.
+     * @param request Requerimiento
+     * @return true si fue encolado (false si la cola está llena)
+     * @throws IllegalArgumentException si la función no es soportada o la
+     * cantidad excede los límites de Modbus
+     */
+    public boolean enqueue(ModbusRequest request){
+        validate(request);
+        boolean result;
+        synchronized (this){
+            result = offer(request);
+        }
+        if (result)
+            wakeUp();
+        return result;
+    }
+    
+    /**
+     * Encola (para posterior envío) un lote de requerimientos en una única
+     * operación.
+     * @param requests Requerimientos
+     * @return Cantidad de requerimientos encolados
+     * @throws IllegalArgumentException si algún requerimiento es inválido
+     * (no se encola ninguno)
+     */
+    public int enqueue(Collection<ModbusRequest> requests){
+        for (ModbusRequest request : requests)
+            validate(request);
+        int count = 0;
+        synchronized (this){
+            for (ModbusRequest request : requests)
+                if (offer(request))
+                    count++;
+        }
+        if (count > 0)
+            wakeUp();
+        return count;
+    }
+    
+    /**
+     * Encolado sin bloqueo (ModbusAsyncMaster): el requerimiento pasa por una
+     * cola concurrente (múltiples productores, un consumidor) y se incorpora a
+     * la cola del Maestro en el próximo process().
+     */
+    void submit(ModbusRequest request){
+        validate(request);
+        mSubmissions.add(request);
+        wakeUp();
+    }
+    
+    void drainSubmissions(){
+        ModbusRequest request;
+        while ((request = mSubmissions.poll()) != null)
+            if (!offer(request))
+                request.future.completeExceptionally(new RejectedExecutionException("Cola de requerimientos llena"));
+    }
+    
+    /**
+     * Rechaza al encolar los requerimientos que no pueden codificarse (p.e.
+     * escrituras de más de 123 registros), en lugar de fallar en el hilo del
+     * Maestro.
+     */
+    static void validate(ModbusRequest request){
+        if (!ModbusMasterParser.validRequest(request))
+            throw new IllegalArgumentException(String.format("Requerimiento inválido (esclavo %d, función 0x%02X, dirección %d, cantidad %d)", 
+                    request.slaveAddress, request.function, request.address, request.quantity));
+    }
+    
+    private boolean offer(ModbusRequest request){
+        if (request.priority == null)
+            request.priority = ModbusRequestPriority.of(request.function);
+        if (mRequestTail.size() >= queueCapacity){
+            ModbusRequest dropped = null;
+            if (overflowPolicy == ModbusOverflowPolicy.DROP_OLDEST)
+                dropped = mRequestTail.removeOldest(request.priority);
+            if (dropped == null)
+                return false;
+            mMetrics.onDropped();
+            onDropped(dropped, "Requerimiento descartado");
+            finish(dropped);
+        }
+        push(request);
+        return true;
+    }
+    
+    /**
+     * Incorpora un requerimiento a la cola (encolado o lectura cíclica
+     * liberada): instante de encolado, plazo y reintentos realizados.
+     */
+    private void push(ModbusRequest request){
+        if (request.priority == null)
+            request.priority = ModbusRequestPriority.of(request.function);
+        request.queued = System.nanoTime();
+        int deadline = request.deadline > 0 ? request.deadline : requestDeadline;
+        request.expires = deadline > 0 ? request.queued + TimeUnit.MILLISECONDS.toNanos(deadline) : 0;
+        request.attempts = 0;
+        mRequestTail.add(request);
+    }
+    
+    private void onDropped(ModbusRequest request, String reason){
+        if (request.coalesced != null){
+            for (ModbusRequest child : request.coalesced)
+                onDropped(child, reason);
+        } else if (request.future != null)
+            request.future.completeExceptionally(new CancellationException(reason));
+        else
+            mListener.onModbusRequestDropped(request);
+    }
+    
+    /**
+     * Asocia una imagen de proceso, actualizada con cada respuesta normal.
+     * Puede compartirse entre varios Maestros (líneas).
+     * @param processImage Imagen de proceso o null
+     */
+    public void setProcessImage(ModbusProcessImage processImage){
+        mProcessImage = processImage;
+    }
+    
+    /**
+     * @return Imagen de proceso asociada o null
+     */
+    public ModbusProcessImage getProcessImage(){
+        return mProcessImage;
+    }
+    
+    /**
+     * Timeout de respuesta vigente para un esclavo.
+     * @param slaveAddress Dirección de esclavo
+     * @return Timeout [ms] (responseTimeOut si adaptiveTimeOut no está habilitado)
+     */
+    public synchronized int getResponseTimeOut(int slaveAddress){
+        return adaptiveTimeOut ? mTimeOuts.timeOut(slaveAddress, minResponseTimeOut, responseTimeOut) : responseTimeOut;
+    }
+    
+    /**
+     * @return Métricas de la línea (ver ModbusMetrics.register() para JMX)
+     */
+    public ModbusMetrics getMetrics(){
+        return mMetrics;
+    }
+    
+    /**
+     * Crea un grupo de lecturas cíclicas.
+     * Las lecturas de los grupos se envían cuando no hay requerimientos de la
+     * aplicación pendientes, priorizando el grupo de vencimiento más próximo.
+     * El primer ciclo se libera de inmediato.
+     * @param period Período [ms] del grupo.
+     * @return Grupo (al que se agregan las lecturas)
+     */
+    public ModbusPollGroup addPollGroup(int period){
+        ModbusPollGroup group = new ModbusPollGroup(period);
+        group.mDeadline = System.nanoTime();
+        synchronized (this){
+            mPollGroups.add(group);
+        }
+        wakeUp();
+        return group;
+    }
+    
+    /**
+     * Elimina un grupo de lecturas cíclicas.
+     * Las lecturas ya enviadas del grupo completan normalmente.
+     * @param group Grupo
+     */
+    public synchronized void removePollGroup(ModbusPollGroup group){
+        mPollGroups.remove(group);
+    }
+    
+    void releasePollGroups(long now){
+        for (ModbusPollGroup group : mPollGroups)
+            group.release(now, retrys);
+    }
+    
+    /**
+     * Si no hay requerimientos listos para enviar en cola (vacía o sólo con
+     * esclavos en espera de reintento) toma lecturas de los grupos de
+     * vencimiento más próximo (EDF). El resto del ciclo de cada grupo se
+     * encola de una vez, de modo que sus lecturas contiguas lleguen juntas al
+     * frente de la cola (ModbusRequestCoalescer).
+     * @return true si hay requerimientos listos en cola
+     */
+    boolean fillRequestTail(){
+        long now = System.nanoTime();
+        if (hasReadyRequest(now))
+            return true;
+        while (true){
+            ModbusPollGroup earliest = null;
+            for (ModbusPollGroup group : mPollGroups)
+                if (group.hasNext() && (earliest == null || group.mDeadline - earliest.mDeadline < 0))
+                    earliest = group;
+            if (earliest == null)
+                return false;
+            //sin límite de capacidad: las lecturas cíclicas están acotadas por el grupo
+            while (earliest.hasNext())
+                push(earliest.next());
+            if (hasReadyRequest(now))
+                return true;
+        }
+    }
+    
+    private boolean hasReadyRequest(long now){
+        return mRequestTail.peekReady(now) != null;
+    }
+    
+    /**
+     * Instante [ns] en el que habrá un requerimiento listo para enviar
+     * (en cola o de los grupos cíclicos).
+     * @return Instante absoluto [ns], Long.MIN_VALUE si hay requerimientos
+     * listos o Long.MAX_VALUE si no hay requerimientos
+     */
+    long nextRequestNanos(){
+        long now = System.nanoTime();
+        if (hasReadyRequest(now))
+            return Long.MIN_VALUE;
+        long next = mRequestTail.nextRelease();
+        long poll = nextPollNanos();
+        if (next == Long.MAX_VALUE)
+            return poll;
+        //comparación por diferencia: los instantes nanoTime pueden desbordar
+        return poll != Long.MAX_VALUE && poll - next < 0 ? poll : next;
+    }
+    
+    /**
+     * Espera [ns] antes del próximo reintento: retryDelay duplicado con cada
+     * reintento, acotado a retryMaxDelay, menos una fracción aleatoria
+     * (retryJitter).
+     */
+    private long retryNanos(ModbusRequest request){
+        long delay = Math.min((long) retryDelay << Math.min(request.attempts, 20), Math.max(retryDelay, retryMaxDelay));
+        delay -= (long) (delay * Math.min(1, Math.max(0, retryJitter)) * ThreadLocalRandom.current().nextDouble());
+        return TimeUnit.MILLISECONDS.toNanos(delay);
+    }
+    
+    /**
+     * Instante [ns] (System.nanoTime()) en el que los grupos cíclicos tendrán
+     * lecturas para enviar.
+     * @return Instante absoluto [ns] o Long.MAX_VALUE si no hay grupos
+     */
+    long nextPollNanos(){
+        if (mPollGroups.isEmpty())
+            return Long.MAX_VALUE;
+        long now = System.nanoTime();
+        long next = Long.MAX_VALUE;
+        for (ModbusPollGroup group : mPollGroups){
+            if (group.hasNext())
+                return now;
+            //vencimientos relativos a now: los instantes nanoTime pueden desbordar
+            next = Math.min(next, group.mDeadline - now);
+        }
+        return now + Math.max(0, next);
+    }
+    
+    /**
+     * Toma el siguiente requerimiento a enviar (fusionando lecturas si
+     * corresponde), salteando los de esclavos en espera de reintento (la
+     * cola los aparta hasta que vence la espera). Los
+     * requerimientos con plazo vencido se abandonan. Los requerimientos a
+     * esclavos fuera de línea se descartan, salvo el sondeo (enviado sin
+     * reintentos).
+     * @return Requerimiento o null si no hay requerimientos para enviar
+     */
+    ModbusRequest takeRequest(){
+        while (fillRequestTail()){
+            long nanos = System.nanoTime();
+            //fillRequestTail dejó al frente un requerimiento listo
+            ModbusRequestCoalescer.coalesce(mRequestTail, coalesceGap);
+            ModbusRequest request = mRequestTail.poll();
+            if (request.expires != 0 && nanos - request.expires >= 0){
+                mMetrics.onDropped();
+                onDropped(request, "Plazo vencido");
+                finish(request);
+                continue;
+            }
+            if (mHealth.admit(request.slaveAddress, nanos)){
+                if (mHealth.isOffline(request.slaveAddress))
+                    request.retrys = 0;
+                return request;
+            }
+            mMetrics.onDropped();
+            onDropped(request, "Esclavo fuera de línea");
+            finish(request);
+        }
+        return null;
+    }
+    
+    /**
+     * Actualiza la salud del esclavo ante una respuesta.
+     */
+    void onSlaveResponse(ModbusRequest request){
+        if (mHealth.onResponse(request.slaveAddress))
+            mListener.onModbusSlaveOnline(request.slaveAddress);
+    }
+    
+    /**
+     * Actualiza la salud del esclavo ante un timeout.
+     */
+    void onSlaveTimeOut(ModbusRequest request){
+        if (mHealth.onTimeOut(request.slaveAddress, System.nanoTime(), offlineThreshold, offlineProbeDelay, offlineProbeMaxDelay))
+            mListener.onModbusSlaveOffline(request.slaveAddress);
+    }
+    
+    /**
+     * Un sondeo que finaliza sin respuesta válida (trama inválida o
+     * requerimiento no codificable) cuenta como sondeo fallido.
+     */
+    void onSlaveFailure(ModbusRequest request){
+        if (mHealth.isProbing(request.slaveAddress))
+            onSlaveTimeOut(request);
+    }
+    
+    /**
+     * @param slaveAddress Dirección de esclavo
+     * @return false si el esclavo está fuera de línea (ver offlineThreshold)
+     */
+    public synchronized boolean isSlaveOnline(int slaveAddress){
+        return !mHealth.isOffline(slaveAddress);
+    }
+    
+    /**
+     * Reintento de un requerimiento (al frente de su carril) o fin si agotó
+     * los reintentos o venció su plazo. Con retryDelay el esclavo queda
+     * diferido hasta el reintento y se atienden otros esclavos.
+     */
+    void retry(ModbusRequest request){
+        long now = System.nanoTime();
+        if (request.retrys > 0 && (request.expires == 0 || now - request.expires < 0)){
+            mMetrics.onRetry(request);
+            request.retrys--;
+            if (retryDelay > 0)
+                mRequestTail.defer(request.slaveAddress, now + retryNanos(request));
+            request.attempts++;
+            mRequestTail.addFirst(request);
+        } else
+            finish(request);
+    }
+    
+    /**
+     * Fin de un requerimiento (respondido o descartado).
+     */
+    void finish(ModbusRequest request){
+        if (request.coalesced != null){
+            //si fue separado los requerimientos originales siguen en cola
+            if (!request.coalesced[0].split)
+                for (ModbusRequest child : request.coalesced)
+                    finish(child);
+        } else {
+            if (request.pollGroup != null)
+                request.pollGroup.finish(System.nanoTime());
+            //sin respuesta válida: timeout
+            if (request.future != null)
+                request.future.completeExceptionally(new TimeoutException());
+        }
+    }
+    
+    /**
+     * Fin de un broadcast enviado (sin respuesta): su futuro se completa con
+     * null.
+     */
+    void finishBroadcast(ModbusRequest request){
+        if (request.future != null)
+            request.future.complete(null);
+        finish(request);
+    }
+    
+    private void wakeUp(){
+        ModbusMasterEngine engine = mEngine;
+        if (engine != null){
+            mEvent = true;
+            engine.wakeUp();
+        }
+    }
+    
+    InputStream getInputStream(){
+        return mInputStream;
+    }
  
     private void doRequest(){
-        mCurrentRequest = mRequestTail.get(0);
-        byte[] parse = null;
-        switch (mCurrentRequest.function){
-            case ModbusTypes.MODBUS_FUNCTION_READ_COILS:
-                parse = ModbusMasterParser.readCoils(mCurrentRequest.slaveAddress, mCurrentRequest.address, mCurrentRequest.quantity);
-            break;                       
-            case ModbusTypes.MODBUS_FUNCTION_READ_HOLDING_REGISTERS:
-                parse = ModbusMasterParser.readHoldingRegisters(mCurrentRequest.slaveAddress, mCurrentRequest.address, mCurrentRequest.quantity);
-            break;                       
-            case ModbusTypes.MODBUS_FUNCTION_READ_INPUT_REGISTERS:
-                parse = ModbusMasterParser.readInputRegisters(mCurrentRequest.slaveAddress, mCurrentRequest.address, mCurrentRequest.quantity);
-            break;                       
-            case ModbusTypes.MODBUS_FUNCTION_WRITE_SINGLE_COIL:
-                parse = ModbusMasterParser.writeSingleCoil(mCurrentRequest.slaveAddress, mCurrentRequest.address, mCurrentRequest.value[0]);
-            break;
-            case ModbusTypes.MODBUS_FUNCTION_WRITE_SINGLE_REGISTER:
-                parse = ModbusMasterParser.writeSingleRegister(mCurrentRequest.slaveAddress, mCurrentRequest.address, mCurrentRequest.value[0]);
-            break;
-            case ModbusTypes.MODBUS_FUNCTION_WRITE_MULTIPLE_COILS:
-                parse = ModbusMasterParser.writeMultipleCoils(mCurrentRequest.slaveAddress, mCurrentRequest.address, mCurrentRequest.quantity, mCurrentRequest.value);
-            break;                
-            case ModbusTypes.MODBUS_FUNCTION_WRITE_MULTIPLE_REGISTERS:
-                parse = ModbusMasterParser.writeMultipleRegisters(mCurrentRequest.slaveAddress, mCurrentRequest.address, mCurrentRequest.quantity, mCurrentRequest.value);
-            break;                    
-            case ModbusTypes.MODBUS_FUNCTION_READ_FILE_RECORD:
-                parse = ModbusMasterParser.readFileRecord(mCurrentRequest.slaveAddress, mCurrentRequest.fileNumber, mCurrentRequest.recordNumber, mCurrentRequest.recordLength);
-            break;                       
-        }
+        mCurrentRequest = takeRequest();
+        if (mCurrentRequest == null)
+            return;
+        int size = ModbusMasterParser.request(mTXBuffer, 0, mCurrentRequest);
         mState = ModbusMasterState.STATE_IDLE;
-        if (parse != null){
+        if (size > 0){
             purgeRX();
-            mListener.onTX(parse);
-            try {
-                if (mOutputStream != null)
-                    mOutputStream.write(parse);
-            } catch (IOException ex) {
-                Logger.getLogger(ModbusMaster.class.getName()).log(Level.SEVERE, null, ex);
-            }
-            mLastTX = System.currentTimeMillis();
-            if (mCurrentRequest.slaveAddress != 0)
+            mFramer.expect(mCurrentRequest.slaveAddress, mCurrentRequest.function);
+            mCurrentRequest.sent = System.nanoTime();
+            mCurrentRequest.timeOut = getResponseTimeOut(mCurrentRequest.slaveAddress);
+            transmit(mTXBuffer, 0, size);
+            mMetrics.onSent(mCurrentRequest, mCurrentRequest.sent);
+            mBroadcast = mCurrentRequest.slaveAddress == 0;
+            if (!mBroadcast){
                 mState = ModbusMasterState.STATE_WAIT_FOR_RESPONSE;
+                return;
+            }
+        }
+        //broadcast (sin respuesta) o requerimiento inválido
+        if (size > 0)
+            finishBroadcast(mCurrentRequest);
+        else {
+            onSlaveFailure(mCurrentRequest);
+            finish(mCurrentRequest);
+        }
+        mCurrentRequest = null;
+    }
+    
+    void transmit(byte[] frame, int offset, int size){
+        mListener.onTX(frame, offset, size);
+        mMetrics.onTX(size);
+        try {
+            if (mOutputStream != null){
+                mOutputStream.write(frame, offset, size);
+                mOutputStream.flush();
+            }
+        } catch (IOException ex) {
+            Logger.getLogger(ModbusMaster.class.getName()).log(Level.SEVERE, null, ex);
         }
+        mLastTX = System.nanoTime() + (timing != null ? timing.getFrameNanos(size) : 0);
     }
     
     private long timeFromLastRX(){
-        return System.currentTimeMillis() - mLastRX;
+        return System.nanoTime() - mLastRX;
     }
     
     private long timeFromLastTX(){
-        return System.currentTimeMillis() - mLastTX;
+        return System.nanoTime() - mLastTX;
     }
     
     private long timeFromLastRXTX() {
         return Math.min(timeFromLastRX(), timeFromLastTX());
     }
     
-    private void purgeRX(){
+    /**
+     * @return Silencio de fin de trama [ns]
+     */
+    private long frameGap(){
+        return timing != null ? timing.getT35Nanos() : TimeUnit.MILLISECONDS.toNanos(frameTimeOut);
+    }
+    
+    /**
+     * @return Separación mínima entre la última trama y el próximo
+     * requerimiento [ns]
+     */
+    private long turnAround(){
+        if (timing == null)
+            return TimeUnit.MILLISECONDS.toNanos(turnAroundDelay);
+        if (mBroadcast)
+            return Math.max(timing.getT35Nanos(), TimeUnit.MILLISECONDS.toNanos(turnAroundDelay));
+        return timing.getT35Nanos();
+    }
+    
+    void purgeRX(){
         mRXBufferSize = 0;
+        mFramer.reset();
     }
     
     /**
@@ -331,36 +788,142 @@ public class ModbusMaster {
      * @param bytes Trama (bytes) recibidos.
      */
     public void onRX(byte[] bytes){
-        mLastRX = System.currentTimeMillis();
-        if (mRXBufferSize + bytes.length < mRXBuffer.length){
-            System.arraycopy(bytes, 0, mRXBuffer, mRXBufferSize, bytes.length);
-            mRXBufferSize += bytes.length;
-        } else
-            purgeRX();
-        mListener.onRX(bytes);
+        onRX(bytes, 0, bytes.length);
+    }    
+
+    /**
+     * Método de entrada de datos (recepción) alternativo al InputStream.
+     * @param bytes Buffer con los bytes recibidos.
+     * @param offset Posición del primer byte recibido.
+     * @param length Cantidad de bytes recibidos.
+     */
+    public void onRX(byte[] bytes, int offset, int length){
+        try {
+            synchronized (this){
+                mLastRX = System.nanoTime();
+                if (mRXBufferSize == 0)
+                    mFirstRX = mLastRX;
+                if (mRXBufferSize + length < mRXBuffer.length){
+                    System.arraycopy(bytes, offset, mRXBuffer, mRXBufferSize, length);
+                    mRXBufferSize += length;
+                } else
+                    purgeRX();
+                mMetrics.onRX(length);
+                mListener.onRX(bytes, offset, length);
+            }
+        } finally {
+            wakeUp();
+        }
     }    
 
-    private void streamRX(){
+    private synchronized void streamRX(){
         try {
             int available;
             if ((available = mInputStream.available()) > 0){
-                byte[] frame = new byte[available];
-                mInputStream.read(frame);
-                onRX(frame);
+                if (mRXBufferSize + available >= mRXBuffer.length)
+                    purgeRX();
+                int count = mInputStream.read(mRXBuffer, mRXBufferSize, Math.min(available, mRXBuffer.length - mRXBufferSize - 1));
+                if (count > 0){
+                    mLastRX = System.nanoTime();
+                    if (mRXBufferSize == 0)
+                        mFirstRX = mLastRX;
+                    mMetrics.onRX(count);
+                    mListener.onRX(mRXBuffer, mRXBufferSize, count);
+                    mRXBufferSize += count;
+                }
             }
         } catch (IOException ex) {
             Logger.getLogger(ModbusMaster.class.getName()).log(Level.SEVERE, null, ex);
         }
     }
     
+    /**
+     * Procesa la respuesta (ADU sin CRC a partir de offset) a un requerimiento.
+     * @return true si la respuesta fue aceptada por el "Escuchador"
+     */
+    boolean onResponse(ModbusRequest request, byte[] adu, int offset){
+        if (mProcessImage == null && request.future == null && mResponseView.wrap(adu, offset, request)){
+            if (request.coalesced != null)
+                //cada requerimiento original se atiende una única vez (vista o respuesta normal)
+                return onResponseView(request, adu, offset);
+            if (mListener.onResponseView(request, mResponseView))
+                return true;
+        }
+        ModbusResponse response = ModbusMasterParser.takeResponseFromADU(adu, offset, request);
+        if (response == null)
+            return false;
+        if (response.getClass().equals(ModbusNormalResponse.class)){
+            ModbusProcessImage processImage = mProcessImage;
+            if (processImage != null)
+                processImage.update(request, (ModbusNormalResponse)response);
+            if (request.coalesced != null){
+                boolean result = true;
+                for (ModbusRequest child : request.coalesced)
+                    result &= dispatchResponse(child, ModbusRequestCoalescer.split(request, (ModbusNormalResponse)response, child));
+                return result;
+            }
+            return dispatchResponse(request, (ModbusNormalResponse)response);
+        }
+        mMetrics.onException(response.slaveAddress, ((ModbusExceptionResponse)response).code);
+        if (request.coalesced != null){
+            //se reintenta cada lectura por separado
+            ModbusRequestCoalescer.uncoalesce(mRequestTail, request);
+            return true;
+        }
+        if (request.future != null){
+            request.future.completeExceptionally(new ModbusException((ModbusExceptionResponse)response));
+            //sin reintentos: el futuro ya fue completado
+            request.retrys = 0;
+        } else
+            mListener.onModbusException(request, response);
+        return false;
+    }
+    
+    /**
+     * Entrega la vista de la respuesta a cada requerimiento original de un
+     * requerimiento fusionado; los no atendidos (o con futuro) se despachan
+     * como respuesta normal.
+     */
+    private boolean onResponseView(ModbusRequest request, byte[] adu, int offset){
+        ModbusNormalResponse response = null;
+        boolean result = true;
+        for (ModbusRequest child : request.coalesced){
+            if (child.future == null){
+                mResponseView.slice(child, request.address);
+                if (mListener.onResponseView(child, mResponseView))
+                    continue;
+            }
+            if (response == null)
+                response = (ModbusNormalResponse) ModbusMasterParser.takeResponseFromADU(adu, offset, request);
+            result &= dispatchResponse(child, ModbusRequestCoalescer.split(request, response, child));
+        }
+        return result;
+    }
+    
+    /**
+     * Genera el evento de timeout (para cada requerimiento original si fue
+     * fusionado).
+     */
+    void onTimeOut(ModbusRequest request){
+        if (request.coalesced != null){
+            for (ModbusRequest child : request.coalesced)
+                onTimeOut(child);
+        } else if (request.future == null)
+            mListener.onModbusTimeOut(request);
+    }
+    
     private boolean dispatchResponse(ModbusRequest request, ModbusNormalResponse response){
+        if (request.future != null){
+            request.future.complete(response);
+            return true;
+        }
         boolean result;
         //respuesta genérica
         if (!(result = mListener.onModbusResponse(request, response))){
             //respuesta específica
             switch (response.function){
                 case ModbusTypes.MODBUS_FUNCTION_READ_COILS:
-                    result = mListener.onResponseReadCoils(response.slaveAddress, response.address, response.quantity, ModbusUtils.int2boolean(response.value));
+                    result = mListener.onResponseReadCoils(response.slaveAddress, response.address, response.quantity, response.coils);
                 break;
                 case ModbusTypes.MODBUS_FUNCTION_READ_HOLDING_REGISTERS:
                     result = mListener.onResponseReadHoldingRegisters(response.slaveAddress, response.address, response.quantity, response.value);
@@ -375,7 +938,7 @@ public class ModbusMaster {
                     result = mListener.onResponseWriteSingleRegister(response.slaveAddress, response.address, response.value[0]);
                 break;
                 case ModbusTypes.MODBUS_FUNCTION_WRITE_MULTIPLE_COILS:
-                    result = mListener.onResponseWriteMultipleCoils(response.slaveAddress, response.address, response.quantity, ModbusUtils.int2boolean(response.value));
+                    result = mListener.onResponseWriteMultipleCoils(response.slaveAddress, response.address, response.quantity, response.coils);
                 break;            
                 case ModbusTypes.MODBUS_FUNCTION_WRITE_MULTIPLE_REGISTERS:
                     result = mListener.onResponseWriteMultipleRegisters(response.slaveAddress, response.address, response.quantity, response.value);
@@ -389,59 +952,127 @@ public class ModbusMaster {
      * Polling de máquina de estados.
      * Realiza los requerimientos, procesa las respuestas y genera los eventos.
      * Debe llamarse de fórma períodica (~10ms).
+     * No debe utilizarse si el Maestro es manejado por un ModbusMasterEngine.
      */
     public void poll(){
         if (mInputStream != null)
             streamRX();
+        try {
+            process();
+        } catch (RuntimeException ex) {
+            recover();
+            throw ex;
+        }
+    }
+    
+    /**
+     * Recuperación tras una RuntimeException de un "escuchador" durante
+     * process(): el requerimiento en curso se finaliza sin respuesta para
+     * que su futuro y su grupo cíclico no queden pendientes.
+     */
+    synchronized void recover(){
+        if (mCurrentRequest != null){
+            ModbusRequest request = mCurrentRequest;
+            mCurrentRequest = null;
+            mState = ModbusMasterState.STATE_IDLE;
+            purgeRX();
+            finish(request);
+        }
+    }
+    
+    /**
+     * Avance de la máquina de estados (sin lectura del InputStream).
+     */
+    synchronized void process(){
+        drainSubmissions();
+        releasePollGroups(System.nanoTime());
         switch (mState){
             case STATE_IDLE:
-                if (mRequestTail.size() > 0 && timeFromLastRXTX() >= turnAroundDelay)
+                if (timeFromLastRXTX() >= turnAround() && fillRequestTail())
                     doRequest();
             break;
             case STATE_WAIT_FOR_RESPONSE:
                 if (mRXBufferSize > 0){
-                    if (timeFromLastRX() >= frameTimeOut){
-//                        System.out.println(Arrays.toString(Arrays.copyOf(mRXBuffer, mRXBufferSize)));
+                    //la respuesta se reconoce apenas está completa, sin esperar el silencio de fin de trama
+                    boolean silence = timeFromLastRX() >= frameGap();
+                    mResponseOffset = mFramer.scan(mRXBuffer, mRXBufferSize, false);
+                    if (mResponseOffset == -1 && silence)
+                        mResponseOffset = mFramer.scan(mRXBuffer, mRXBufferSize, true);
+                    if (mResponseOffset != -1 || silence)
                         mState = ModbusMasterState.STATE_RESPONSE_RECEIVED;
-                    }
                 } else {
-                    if (timeFromLastTX() >= responseTimeOut){
-                        mListener.onModbusTimeOut(mCurrentRequest);
+                    if (timeFromLastTX() >= TimeUnit.MILLISECONDS.toNanos(mCurrentRequest.timeOut)){
+                        long now = System.nanoTime();
+                        mTimeOuts.backoff(mCurrentRequest.slaveAddress);
+                        mMetrics.onTimeOut(mCurrentRequest);
+                        onSlaveTimeOut(mCurrentRequest);
+                        mMetrics.onBusy(now - mCurrentRequest.sent);
+                        onTimeOut(mCurrentRequest);
                         mState = ModbusMasterState.STATE_IDLE;
-                        if (mCurrentRequest.retrys > 0)
-                            mCurrentRequest.retrys--;
-                        else {
-                            mRequestTail.remove(mCurrentRequest);
-                        }
+                        retry(mCurrentRequest);
+                        mCurrentRequest = null;
                     }                    
                 }
+                //la respuesta completa se procesa en la misma pasada
+                if (mState == ModbusMasterState.STATE_RESPONSE_RECEIVED)
+                    responseReceived();
             break;
             case STATE_RESPONSE_RECEIVED:
-                boolean done = false;
-                int offset = ModbusMasterParser.findValidSlaveADU(mRXBuffer, mRXBufferSize, mCurrentRequest.slaveAddress, mCurrentRequest.function);
-                mState = ModbusMasterState.STATE_IDLE;
-                if (offset != -1){
-                    ModbusResponse response = ModbusMasterParser.takeResponseFromADU(mRXBuffer, offset, mCurrentRequest);
-                    if (response != null){
-                        done = false;
-                        if (response.getClass().equals(ModbusNormalResponse.class))
-                            done = dispatchResponse(mCurrentRequest, (ModbusNormalResponse)response);
-                        else
-                            mListener.onModbusException(mCurrentRequest, response);
-                    }
-                }
-                if (done)
-                    mRequestTail.remove(mCurrentRequest);
-                else {
-                    if (mCurrentRequest.retrys > 0)
-                        mCurrentRequest.retrys--;
-                    else 
-                        mRequestTail.remove(mCurrentRequest);
-                }
-                purgeRX();
+                responseReceived();
             break;
         }
     }
+    
+    /**
+     * Procesa la respuesta recibida (o la trama inválida) al requerimiento en
+     * curso y vuelve a STATE_IDLE.
+     */
+    private void responseReceived(){
+        boolean done = false;
+        long now = System.nanoTime();
+        mState = ModbusMasterState.STATE_IDLE;
+        mMetrics.onBusy(now - mCurrentRequest.sent);
+        if (mResponseOffset != -1){
+            //el timeout vence sin bytes recibidos: la muestra es el tiempo al primer byte
+            mTimeOuts.sample(mCurrentRequest.slaveAddress, (mFirstRX - mCurrentRequest.sent) / 1000);
+            mMetrics.onResponse(mCurrentRequest, now);
+            onSlaveResponse(mCurrentRequest);
+            done = onResponse(mCurrentRequest, mRXBuffer, mResponseOffset);
+        } else {
+            //silencio sin ADU válida (CRC / basura)
+            mMetrics.onFramingError();
+            onSlaveFailure(mCurrentRequest);
+        }
+        if (done)
+            finish(mCurrentRequest);
+        else
+            retry(mCurrentRequest);
+        mCurrentRequest = null;
+        purgeRX();
+    }
+
+    /**
+     * Instante [ns] en el que la máquina de estados tendrá trabajo pendiente
+     * (envío de requerimiento, fin de trama o timeout) si no se reciben datos
+     * ni se encolan requerimientos antes.
+     * @return Instante absoluto [ns] (System.nanoTime()), Long.MIN_VALUE si hay
+     * trabajo inmediato o Long.MAX_VALUE si no hay eventos pendientes.
+     */
+    synchronized long nextEventTime(){
+        switch (mState){
+            case STATE_IDLE:
+                long next = nextRequestNanos();
+                if (next == Long.MAX_VALUE)
+                    return next;
+                return Math.max(next, Math.max(mLastRX, mLastTX) + turnAround());
+            case STATE_WAIT_FOR_RESPONSE:
+                if (mRXBufferSize > 0)
+                    return mLastRX + frameGap();
+                return mLastTX + TimeUnit.MILLISECONDS.toNanos(mCurrentRequest.timeOut);
+            default:
+                return Long.MIN_VALUE;
+        }
+    }
 
     /**
      * Verifica vaciado de cola de requerimientos.
@@ -449,16 +1080,17 @@ public class ModbusMaster {
      * requerimientos pendientes.
      * @return true en caso de que la cola esté vacía
      */
-    public boolean emptyRequestTail() {
-        return mRequestTail.isEmpty();
+    public synchronized boolean emptyRequestTail() {
+        return mRequestTail.isEmpty() && mCurrentRequest == null;
     }
     
     /**
-     * Retorna cantidad de requerimientos pendientes del Maestro Modbus.
+     * Retorna cantidad de requerimientos pendientes del Maestro Modbus
+     * (encolados y en curso).
      * @return Cantidad de requerimientos pendientes
      */
-    public int pendingRequestCount() {
-        return mRequestTail.size();
+    public synchronized int pendingRequestCount() {
+        return mRequestTail.size() + (mCurrentRequest != null ? 1 : 0);
     }    
 }
 
@@ -466,4 +1098,4 @@ enum ModbusMasterState {
     STATE_IDLE,
     STATE_WAIT_FOR_RESPONSE,
     STATE_RESPONSE_RECEIVED,
-}
\ No newline at end of file
+}
\ No newline at end of file
@@ -0,0 +1,251 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2018 Luis Pichio.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package com.luispichio.ajmodbus;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Motor por eventos de Maestros Modbus.
+ * Reemplaza el llamado periódico a ModbusMaster.poll(): un hilo de lectura
+ * bloqueante por InputStream y un único hilo de proceso que sólo despierta
+ * cuando llegan datos, se encola un requerimiento o vence el próximo plazo
+ * (responseTimeOut, frameTimeOut o turnAroundDelay) de alguno de sus Maestros.
+ * Sin tráfico el consumo de CPU es nulo.
+ * Los hilos de lectura no pueden interrumpirse de forma portable (lectura
+ * bloqueante): sobreviven a stop() y se reutilizan con el siguiente start(),
+ * de modo que nunca hay dos lectores sobre el mismo stream. Finalizan al
+ * quitar el Maestro (con la siguiente lectura) o al cerrarse el stream.
+ * 
+ * Los eventos del ModbusMasterListener se generan desde el hilo de proceso.
+ * Una RuntimeException de un "escuchador" se registra (log) y descarta el
+ * requerimiento en curso de ese Maestro, sin detener el motor.
+ * 
+ * @author Luis Pichio | luispichio@gmail.com | https://sites.google.com/site/luispichio/ | https://github.com/luispichio
+ */
+public class ModbusMasterEngine {
+    private final CopyOnWriteArrayList<ModbusMaster> mMasters = new CopyOnWriteArrayList<>();
+    private final ReentrantLock mLock = new ReentrantLock();
+    private final Condition mEvent = mLock.newCondition();
+    private final AtomicBoolean mSignaled = new AtomicBoolean();
+    private volatile boolean mRunning;
+    private Thread mThread;
+    private final HashMap<ModbusMaster, Thread> mReaders = new HashMap<>();
+    
+    /**
+     * Constructor de la clase
+     * @param masters Maestros a manejar.
+     */
+    public ModbusMasterEngine(ModbusMaster... masters){
+        for (ModbusMaster master : masters)
+            add(master);
+    }
+    
+    /**
+     * Agrega un Maestro al motor.
+     * A partir de este momento no debe llamarse a ModbusMaster.poll().
+     * @param master Maestro a manejar.
+     */
+    public synchronized void add(ModbusMaster master){
+        master.mEngine = this;
+        master.mEvent = true;
+        mMasters.add(master);
+        if (mRunning)
+            startReader(master);
+        wakeUp();
+    }
+    
+    /**
+     * Quita un Maestro del motor.
+     * @param master Maestro a quitar.
+     */
+    public synchronized void remove(ModbusMaster master){
+        if (mMasters.remove(master))
+            master.mEngine = null;
+    }
+    
+    /**
+     * Cantidad de Maestros manejados por el motor.
+     * @return Cantidad de Maestros
+     */
+    public int size(){
+        return mMasters.size();
+    }
+    
+    /**
+     * Inicia los hilos de lectura y de proceso.
+     */
+    public synchronized void start(){
+        if (mRunning)
+            return;
+        mRunning = true;
+        for (ModbusMaster master : mMasters)
+            startReader(master);
+        mThread = new Thread(this::run, "ModbusMasterEngine");
+        mThread.setDaemon(true);
+        mThread.start();
+    }
+    
+    /**
+     * Detiene el hilo de proceso y espera su finalización.
+     * Los hilos de lectura quedan a la espera de datos y se reutilizan con
+     * el siguiente start() (los datos recibidos mientras tanto se procesan
+     * al reiniciar).
+     */
+    public void stop(){
+        Thread thread;
+        synchronized (this){
+            mRunning = false;
+            thread = mThread;
+            mThread = null;
+        }
+        wakeUp();
+        if (thread != null && thread != Thread.currentThread()){
+            try {
+                thread.join();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    void wakeUp(){
+        //con un aviso pendiente no es necesario tomar el lock
+        if (mSignaled.getAndSet(true))
+            return;
+        mLock.lock();
+        try {
+            mEvent.signal();
+        } finally {
+            mLock.unlock();
+        }
+    }
+    
+    private void startReader(final ModbusMaster master){
+        final InputStream inputStream = master.getInputStream();
+        if (inputStream == null)
+            return;
+        //un único lector por Maestro: el de un start() anterior sigue activo
+        Thread reader = mReaders.get(master);
+        if (reader != null && reader.isAlive())
+            return;
+        reader = new Thread(() -> read(master, inputStream), "ModbusMasterEngine-RX");
+        reader.setDaemon(true);
+        mReaders.put(master, reader);
+        reader.start();
+    }
+    
+    private void read(ModbusMaster master, InputStream inputStream){
+        byte[] buffer = new byte[256];
+        try {
+            int count;
+            while (master.mEngine == this && (count = inputStream.read(buffer)) != -1){
+                if (count > 0)
+                    try {
+                        master.onRX(buffer, 0, count);
+                    } catch (RuntimeException ex) {
+                        //excepción del "escuchador": el hilo de lectura continúa
+                        Logger.getLogger(ModbusMasterEngine.class.getName()).log(Level.SEVERE, null, ex);
+                    }
+            }
+        } catch (IOException ex) {
+            if (mRunning)
+                Logger.getLogger(ModbusMasterEngine.class.getName()).log(Level.SEVERE, null, ex);
+        } finally {
+            synchronized (this){
+                mReaders.remove(master, Thread.currentThread());
+            }
+        }
+    }
+    
+    /**
+     * @param time Instante [ns] del próximo evento (Long.MIN_VALUE: inmediato,
+     * Long.MAX_VALUE: sin eventos)
+     * @return true si el evento venció
+     */
+    private static boolean due(long time, long now){
+        if (time == Long.MAX_VALUE)
+            return false;
+        //diferencia de instantes: inmune al desborde de nanoTime
+        return time == Long.MIN_VALUE || time - now <= 0;
+    }
+    
+    private void run(){
+        while (mRunning){
+            //instante [ns] del próximo plazo (válido si pending)
+            long next = 0;
+            boolean pending = false;
+            long now = System.nanoTime();
+            //sólo se procesan los Maestros con eventos o plazos vencidos
+            for (ModbusMaster master : mMasters){
+                if (master.mEvent || due(master.mNextEventTime, now)){
+                    master.mEvent = false;
+                    try {
+                        master.process();
+                    } catch (RuntimeException ex) {
+                        //excepción del "escuchador": se descarta el requerimiento en curso y el resto de los Maestros continúa
+                        Logger.getLogger(ModbusMasterEngine.class.getName()).log(Level.SEVERE, null, ex);
+                        master.recover();
+                    }
+                    master.mNextEventTime = master.nextEventTime();
+                }
+                long time = master.mNextEventTime;
+                if (time == Long.MAX_VALUE)
+                    continue;
+                //trabajo inmediato: plazo = ahora
+                if (time == Long.MIN_VALUE)
+                    time = now;
+                if (!pending || time - next < 0)
+                    next = time;
+                pending = true;
+            }
+            mLock.lock();
+            try {
+                if (!mSignaled.get() && mRunning){
+                    if (!pending)
+                        mEvent.await();
+                    else {
+                        long delay = next - System.nanoTime();
+                        if (delay > 0)
+                            mEvent.awaitNanos(delay);
+                    }
+                }
+                mSignaled.set(false);
+            } catch (InterruptedException ex) {
+                mRunning = false;
+            } finally {
+                mLock.unlock();
+            }
+        }
+    }
+}
@@ -0,0 +1,148 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2018 Luis Pichio.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package com.luispichio.ajmodbus;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Administrador de múltiples líneas (Maestros Modbus RTU / TCP).
+ * Reparte las líneas entre un conjunto fijo de ModbusMasterEngine (por
+ * defecto uno por núcleo), asignando cada nueva línea al motor con menos
+ * líneas. Cada motor procesa sus líneas desde un único hilo que sólo
+ * despierta por recepción, encolado o vencimiento de plazos, por lo que un
+ * mismo proceso puede manejar cientos de buses.
+ * 
+ * @author Luis Pichio | luispichio@gmail.com | https://sites.google.com/site/luispichio/ | https://github.com/luispichio
+ */
+public class ModbusMasterGroup {
+    private final ModbusMasterEngine[] mEngines;
+    private final ArrayList<ModbusMaster> mLines = new ArrayList<>();
+    private boolean mRunning;
+    
+    /**
+     * Constructor de la clase
+     * @param threads Cantidad de motores (hilos de proceso).
+     */
+    public ModbusMasterGroup(int threads){
+        mEngines = new ModbusMasterEngine[Math.max(1, threads)];
+        for (int i = 0 ; i < mEngines.length ; i++)
+            mEngines[i] = new ModbusMasterEngine();
+    }
+    
+    /**
+     * Constructor de la clase (un motor por núcleo).
+     */
+    public ModbusMasterGroup(){
+        this(Runtime.getRuntime().availableProcessors());
+    }
+    
+    /**
+     * Agrega una línea al motor con menos líneas.
+     * A partir de este momento no debe llamarse a ModbusMaster.poll().
+     * @param master Maestro de la línea.
+     */
+    public synchronized void add(ModbusMaster master){
+        ModbusMasterEngine engine = mEngines[0];
+        for (ModbusMasterEngine candidate : mEngines)
+            if (candidate.size() < engine.size())
+                engine = candidate;
+        engine.add(master);
+        mLines.add(master);
+    }
+    
+    /**
+     * Quita una línea.
+     * @param master Maestro de la línea.
+     */
+    public synchronized void remove(ModbusMaster master){
+        ModbusMasterEngine engine = master.mEngine;
+        if (engine != null && mLines.remove(master))
+            engine.remove(master);
+    }
+    
+    /**
+     * Inicia los motores.
+     */
+    public synchronized void start(){
+        mRunning = true;
+        for (ModbusMasterEngine engine : mEngines)
+            engine.start();
+    }
+    
+    /**
+     * Detiene los motores.
+     */
+    public synchronized void stop(){
+        mRunning = false;
+        for (ModbusMasterEngine engine : mEngines)
+            engine.stop();
+    }
+    
+    /**
+     * @return true si los motores están iniciados
+     */
+    public synchronized boolean isRunning(){
+        return mRunning;
+    }
+    
+    /**
+     * @return Cantidad de motores (hilos de proceso)
+     */
+    public int threadCount(){
+        return mEngines.length;
+    }
+    
+    /**
+     * @return Líneas administradas
+     */
+    public synchronized List<ModbusMaster> getLines(){
+        return new ArrayList<>(mLines);
+    }
+    
+    /**
+     * Profundidad de cola (requerimientos pendientes) de cada línea.
+     * @return Requerimientos pendientes por línea (en orden de alta)
+     */
+    public synchronized Map<ModbusMaster, Integer> queueDepths(){
+        Map<ModbusMaster, Integer> result = new LinkedHashMap<>();
+        for (ModbusMaster master : mLines)
+            result.put(master, master.pendingRequestCount());
+        return result;
+    }
+    
+    /**
+     * @return Total de requerimientos pendientes de todas las líneas
+     */
+    public synchronized int pendingRequestCount(){
+        int count = 0;
+        for (ModbusMaster master : mLines)
+            count += master.pendingRequestCount();
+        return count;
+    }
+}
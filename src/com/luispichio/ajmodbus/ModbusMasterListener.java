@@ -24,6 +24,8 @@
 
 package com.luispichio.ajmodbus;
 
+import java.util.Arrays;
+
 /**
  * "Escuchador" de Maestro Modbus.
  * Recibe los eventos ...
@@ -39,6 +41,21 @@ public interface ModbusMasterListener {
      */
     public boolean onModbusResponse(ModbusRequest request, ModbusResponse response);
 
+    /**
+     * Evento de respuesta a lectura (0x01, 0x03, 0x04) sin copias: la vista
+     * lee los valores directamente del buffer de recepción y sólo es válida
+     * durante el evento (ver ModbusResponseView.copy()).
+     * Si es atendido (true) no se generan onModbusResponse ni el evento
+     * específico. No se genera para requerimientos con futuro ni con imagen
+     * de proceso asociada.
+     * @param request Requerimiento (original si fue fusionado)
+     * @param view Vista de la respuesta
+     * @return true si fue atendido
+     */
+    public default boolean onResponseView(ModbusRequest request, ModbusResponseView view){
+        return false;
+    }
+
     /**
      * Evento ...
      * @param request
@@ -52,6 +69,29 @@ public interface ModbusMasterListener {
      */
     public void onModbusTimeOut(ModbusRequest request);
 
+    /**
+     * Evento de requerimiento descartado por cola llena
+     * (ModbusOverflowPolicy.DROP_OLDEST) o por esclavo fuera de línea.
+     * @param request Requerimiento descartado
+     */
+    public default void onModbusRequestDropped(ModbusRequest request){
+    }
+
+    /**
+     * Evento de esclavo fuera de línea (timeouts consecutivos, ver
+     * ModbusMaster.offlineThreshold).
+     * @param slaveAddress Dirección de esclavo
+     */
+    public default void onModbusSlaveOffline(int slaveAddress){
+    }
+
+    /**
+     * Evento de esclavo nuevamente en línea (respuesta a un sondeo).
+     * @param slaveAddress Dirección de esclavo
+     */
+    public default void onModbusSlaveOnline(int slaveAddress){
+    }
+
     /**
      *
      * @param bytes
@@ -64,6 +104,30 @@ public interface ModbusMasterListener {
      */
     public void onTX(byte[] bytes);
 
+    /**
+     * Evento de recepción sobre el buffer interno (sin copia).
+     * Por defecto copia los bytes y genera onRX(byte[]); sobreescribir para
+     * evitar la reserva de memoria. Los datos sólo son válidos durante el evento.
+     * @param bytes Buffer
+     * @param offset Posición del primer byte recibido
+     * @param length Cantidad de bytes recibidos
+     */
+    public default void onRX(byte[] bytes, int offset, int length){
+        onRX(Arrays.copyOfRange(bytes, offset, offset + length));
+    }
+
+    /**
+     * Evento de transmisión sobre el buffer interno (sin copia).
+     * Por defecto copia los bytes y genera onTX(byte[]); sobreescribir para
+     * evitar la reserva de memoria. Los datos sólo son válidos durante el evento.
+     * @param bytes Buffer
+     * @param offset Posición del primer byte a transmitir
+     * @param length Cantidad de bytes a transmitir
+     */
+    public default void onTX(byte[] bytes, int offset, int length){
+        onTX(Arrays.copyOfRange(bytes, offset, offset + length));
+    }
+
     /**
      *
      * @param slaveAddress
@@ -74,6 +138,19 @@ public interface ModbusMasterListener {
      */
     public boolean onResponseReadCoils(int slaveAddress, int address, int quantity, boolean[] value);
 
+    /**
+     * Evento de respuesta a lectura de múltiples coils (empaquetados).
+     * Por defecto desempaqueta y genera onResponseReadCoils(..., boolean[]).
+     * @param slaveAddress
+     * @param address
+     * @param quantity
+     * @param coils
+     * @return
+     */
+    public default boolean onResponseReadCoils(int slaveAddress, int address, int quantity, ModbusCoils coils){
+        return onResponseReadCoils(slaveAddress, address, quantity, coils.toBooleanArray());
+    }
+
     /**
      * Evento de respuesta a lectura de múltiples coils.
      * @param slaveAddress
@@ -122,6 +199,19 @@ public interface ModbusMasterListener {
      */
     public boolean onResponseWriteMultipleCoils(int slaveAddress, int address, int quantity, boolean[] value);
 
+    /**
+     * Evento de respuesta a escritura de múltiples coil's (empaquetados).
+     * Por defecto desempaqueta y genera onResponseWriteMultipleCoils(..., boolean[]).
+     * @param slaveAddress
+     * @param address
+     * @param quantity
+     * @param coils
+     * @return
+     */
+    public default boolean onResponseWriteMultipleCoils(int slaveAddress, int address, int quantity, ModbusCoils coils){
+        return onResponseWriteMultipleCoils(slaveAddress, address, quantity, coils.toBooleanArray());
+    }
+
     /**
      * Evento de respuesta a escritura de múltiples registros holding.
      * @param slaveAddress
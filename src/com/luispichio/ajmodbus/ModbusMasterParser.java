@@ -37,108 +37,160 @@ package com.luispichio.ajmodbus;
  * @author Luis Pichio | luispichio@gmail.com | https://sites.google.com/site/luispichio/ | https://github.com/luispichio
  */
 public class ModbusMasterParser {
-    static byte[] readCoils(int slaveAddress, int address, int quantity){
-	byte[] parse = new byte[8];
-        int size = 0;
-        parse[size++] = (byte) slaveAddress;
-        parse[size++] = ModbusTypes.MODBUS_FUNCTION_READ_COILS;
-        ModbusUtils.putWord(parse, address, size); size += 2;
-        ModbusUtils.putWord(parse, quantity, size); size += 2;
-        ModbusUtils.putWordFlip(parse, ModbusUtils.crc16(0xFFFF, parse, size), size); size += 2;
-        return parse;
+    /*
+     * Cantidades máximas por requerimiento (la PDU no supera 253 bytes).
+     */
+    static final int MAX_READ_COILS = 2000;
+    static final int MAX_READ_REGISTERS = 125;
+    static final int MAX_WRITE_COILS = 1968;
+    static final int MAX_WRITE_REGISTERS = 123;
+    
+    static int readCoils(byte[] frame, int offset, int slaveAddress, int address, int quantity){
+        return putRequest(frame, offset, slaveAddress, ModbusTypes.MODBUS_FUNCTION_READ_COILS, address, quantity);
     }
     
-    static byte[] readHoldingRegisters(int slaveAddress, int address, int quantity){
-	byte[] parse = new byte[8];
-        int size = 0;
-        parse[size++] = (byte) slaveAddress;
-        parse[size++] = ModbusTypes.MODBUS_FUNCTION_READ_HOLDING_REGISTERS;
-        ModbusUtils.putWord(parse, address, size); size += 2;
-        ModbusUtils.putWord(parse, quantity, size); size += 2;
-        ModbusUtils.putWordFlip(parse, ModbusUtils.crc16(0xFFFF, parse, size), size); size += 2;
-        return parse;
+    static int readHoldingRegisters(byte[] frame, int offset, int slaveAddress, int address, int quantity){
+        return putRequest(frame, offset, slaveAddress, ModbusTypes.MODBUS_FUNCTION_READ_HOLDING_REGISTERS, address, quantity);
     }
 
-    static byte[] readInputRegisters(int slaveAddress, int address, int quantity){
-	byte[] parse = new byte[8];
-        int size = 0;
-        parse[size++] = (byte) slaveAddress;
-        parse[size++] = ModbusTypes.MODBUS_FUNCTION_READ_INPUT_REGISTERS;
-        ModbusUtils.putWord(parse, address, size); size += 2;
-        ModbusUtils.putWord(parse, quantity, size); size += 2;
-        ModbusUtils.putWordFlip(parse, ModbusUtils.crc16(0xFFFF, parse, size), size); size += 2;
-        return parse;
+    static int readInputRegisters(byte[] frame, int offset, int slaveAddress, int address, int quantity){
+        return putRequest(frame, offset, slaveAddress, ModbusTypes.MODBUS_FUNCTION_READ_INPUT_REGISTERS, address, quantity);
     }
 
-    static byte[] writeSingleCoil(int slaveAddress, int address, int value){
-	byte[] parse = new byte[8];
-        int size = 0;
-        parse[size++] = (byte) slaveAddress;
-        parse[size++] = ModbusTypes.MODBUS_FUNCTION_WRITE_SINGLE_COIL;
-        ModbusUtils.putWord(parse, address, size); size += 2;
-        ModbusUtils.putWord(parse, value, size); size += 2;
-        ModbusUtils.putWordFlip(parse, ModbusUtils.crc16(0xFFFF, parse, size), size); size += 2;
-        return parse;
+    static int writeSingleCoil(byte[] frame, int offset, int slaveAddress, int address, int value){
+        return putRequest(frame, offset, slaveAddress, ModbusTypes.MODBUS_FUNCTION_WRITE_SINGLE_COIL, address, value);
     }
         
-    static byte[] writeSingleRegister(int slaveAddress, int address, int value){
-	byte[] parse = new byte[8];
-        int size = 0;
-        parse[size++] = (byte) slaveAddress;
-        parse[size++] = ModbusTypes.MODBUS_FUNCTION_WRITE_SINGLE_REGISTER;
-        ModbusUtils.putWord(parse, address, size); size += 2;
-        ModbusUtils.putWord(parse, value, size); size += 2;
-        ModbusUtils.putWordFlip(parse, ModbusUtils.crc16(0xFFFF, parse, size), size); size += 2;
-        return parse;
+    static int writeSingleRegister(byte[] frame, int offset, int slaveAddress, int address, int value){
+        return putRequest(frame, offset, slaveAddress, ModbusTypes.MODBUS_FUNCTION_WRITE_SINGLE_REGISTER, address, value);
+    }
+    
+    /**
+     * Requerimiento de formato fijo: función + 2 palabras (dirección y
+     * cantidad / valor).
+     */
+    private static int putRequest(byte[] frame, int offset, int slaveAddress, byte function, int address, int quantity){
+        int size = offset;
+        frame[size++] = (byte) slaveAddress;
+        frame[size++] = function;
+        ModbusUtils.putWord(frame, address, size); size += 2;
+        ModbusUtils.putWord(frame, quantity, size); size += 2;
+        return putCRC(frame, offset, size);
     }
     
-    static byte[] writeMultipleCoils(int slaveAddress, int address, int quantity, int values[]){
-        byte byteCount = (byte)((quantity % 8) == 0 ? quantity / 8 : quantity / 8 + 1);
-        byte[] parse = new byte[9 + byteCount];
-        int size = 0;
-        parse[size++] = (byte) slaveAddress;
-        parse[size++] = ModbusTypes.MODBUS_FUNCTION_WRITE_MULTIPLE_COILS;
-        ModbusUtils.putWord(parse, address, size); size += 2;
-        ModbusUtils.putWord(parse, quantity, size); size += 2;
-        parse[size++] = byteCount;
-        for (int i = 0 ; i < quantity ; i++)
-            if (values[i] != 0)
-                parse[size + i / 8] |= 1 << (i % 8);
+    /**
+     * Agrega el CRC a la ADU que comienza en offset.
+     * @return Longitud total de la ADU
+     */
+    static int putCRC(byte[] frame, int offset, int size){
+        ModbusUtils.putWordFlip(frame, ModbusUtils.crc16(0xFFFF, frame, offset, size - offset), size); size += 2;
+        return size - offset;
+    }
+    
+    static int writeMultipleCoils(byte[] frame, int offset, int slaveAddress, int address, ModbusCoils coils){
+        int size = offset;
+        frame[size++] = (byte) slaveAddress;
+        frame[size++] = ModbusTypes.MODBUS_FUNCTION_WRITE_MULTIPLE_COILS;
+        ModbusUtils.putWord(frame, address, size); size += 2;
+        ModbusUtils.putWord(frame, coils.size(), size); size += 2;
+        int byteCount = coils.put(frame, size + 1);
+        frame[size++] = (byte) byteCount;
         size += byteCount;
-        ModbusUtils.putWordFlip(parse, ModbusUtils.crc16(0xFFFF, parse, size), size); size += 2;
-        return parse;
+        return putCRC(frame, offset, size);
     }
     
-    static byte[] writeMultipleRegisters(int slaveAddress, int address, int quantity, int values[]){
-        byte[] parse = new byte[9 + 2 * values.length];
-        int size = 0;
-        parse[size++] = (byte) slaveAddress;
-        parse[size++] = ModbusTypes.MODBUS_FUNCTION_WRITE_MULTIPLE_REGISTERS;
-        ModbusUtils.putWord(parse, address, size); size += 2;
-        ModbusUtils.putWord(parse, quantity, size); size += 2;
-        parse[size++] = (byte) (2 * quantity);
-        for (int value : values){
-            ModbusUtils.putWord(parse, value, size);
+    static int writeMultipleRegisters(byte[] frame, int offset, int slaveAddress, int address, int quantity, int values[]){
+        int size = offset;
+        frame[size++] = (byte) slaveAddress;
+        frame[size++] = ModbusTypes.MODBUS_FUNCTION_WRITE_MULTIPLE_REGISTERS;
+        ModbusUtils.putWord(frame, address, size); size += 2;
+        ModbusUtils.putWord(frame, quantity, size); size += 2;
+        frame[size++] = (byte) (2 * quantity);
+        for (int i = 0 ; i < quantity ; i++){
+            ModbusUtils.putWord(frame, values[i], size);
             size += 2;
         }
-        ModbusUtils.putWordFlip(parse, ModbusUtils.crc16(0xFFFF, parse, size), size); size += 2;
-        return parse;
+        return putCRC(frame, offset, size);
     }
 
-    static byte[] readFileRecord(int slaveAddress, int fileNumber, int recordNumber, int recordLength){
-        byte[] parse = new byte[12];
-        int size = 0;
-        parse[size++] = (byte) slaveAddress;
-        parse[size++] = ModbusTypes.MODBUS_FUNCTION_READ_FILE_RECORD;
-        parse[size++] = 7;
-        parse[size++] = 6;
-        ModbusUtils.putWord(parse, fileNumber, size); size += 2;
-        ModbusUtils.putWord(parse, recordNumber, size); size += 2;
-        ModbusUtils.putWord(parse, recordLength, size); size += 2;
-        ModbusUtils.putWordFlip(parse, ModbusUtils.crc16(0xFFFF, parse, size), size); size += 2;
-        return parse;         
+    static int readFileRecord(byte[] frame, int offset, int slaveAddress, int fileNumber, int recordNumber, int recordLength){
+        int size = offset;
+        frame[size++] = (byte) slaveAddress;
+        frame[size++] = ModbusTypes.MODBUS_FUNCTION_READ_FILE_RECORD;
+        frame[size++] = 7;
+        frame[size++] = 6;
+        ModbusUtils.putWord(frame, fileNumber, size); size += 2;
+        ModbusUtils.putWord(frame, recordNumber, size); size += 2;
+        ModbusUtils.putWord(frame, recordLength, size); size += 2;
+        return putCRC(frame, offset, size);
     }
 
+    /**
+     * Genera la ADU de un requerimiento en el buffer indicado (sin reservar
+     * memoria).
+     * @param frame Buffer destino (al menos 260 bytes a partir de offset)
+     * @param offset Posición de la ADU en el buffer
+     * @param request Requerimiento
+     * @return Longitud de la ADU o 0 si la función no es soportada
+     */
+    static int request(byte[] frame, int offset, ModbusRequest request){
+        switch (request.function){
+            case ModbusTypes.MODBUS_FUNCTION_READ_COILS:
+                return readCoils(frame, offset, request.slaveAddress, request.address, request.quantity);
+            case ModbusTypes.MODBUS_FUNCTION_READ_HOLDING_REGISTERS:
+                return readHoldingRegisters(frame, offset, request.slaveAddress, request.address, request.quantity);
+            case ModbusTypes.MODBUS_FUNCTION_READ_INPUT_REGISTERS:
+                return readInputRegisters(frame, offset, request.slaveAddress, request.address, request.quantity);
+            case ModbusTypes.MODBUS_FUNCTION_WRITE_SINGLE_COIL:
+                return writeSingleCoil(frame, offset, request.slaveAddress, request.address, request.value[0]);
+            case ModbusTypes.MODBUS_FUNCTION_WRITE_SINGLE_REGISTER:
+                return writeSingleRegister(frame, offset, request.slaveAddress, request.address, request.value[0]);
+            case ModbusTypes.MODBUS_FUNCTION_WRITE_MULTIPLE_COILS:
+                return writeMultipleCoils(frame, offset, request.slaveAddress, request.address, request.coils);
+            case ModbusTypes.MODBUS_FUNCTION_WRITE_MULTIPLE_REGISTERS:
+                return writeMultipleRegisters(frame, offset, request.slaveAddress, request.address, request.quantity, request.value);
+            case ModbusTypes.MODBUS_FUNCTION_READ_FILE_RECORD:
+                return readFileRecord(frame, offset, request.slaveAddress, request.fileNumber, request.recordNumber, request.recordLength);
+        }
+        return 0;
+    }
+
+    /**
+     * Verifica (sin reservar memoria) que el requerimiento pueda codificarse:
+     * función soportada y cantidades dentro de los límites de Modbus.
+     * @param request Requerimiento
+     * @return true si el requerimiento es válido
+     */
+    static boolean validRequest(ModbusRequest request){
+        switch (request.function){
+            case ModbusTypes.MODBUS_FUNCTION_READ_COILS:
+                return validQuantity(request.quantity, MAX_READ_COILS);
+            case ModbusTypes.MODBUS_FUNCTION_READ_HOLDING_REGISTERS:
+            case ModbusTypes.MODBUS_FUNCTION_READ_INPUT_REGISTERS:
+                return validQuantity(request.quantity, MAX_READ_REGISTERS);
+            case ModbusTypes.MODBUS_FUNCTION_WRITE_SINGLE_COIL:
+            case ModbusTypes.MODBUS_FUNCTION_WRITE_SINGLE_REGISTER:
+                return request.value != null && request.value.length > 0;
+            case ModbusTypes.MODBUS_FUNCTION_WRITE_MULTIPLE_COILS:
+                return request.coils != null && validQuantity(request.coils.size(), MAX_WRITE_COILS);
+            case ModbusTypes.MODBUS_FUNCTION_WRITE_MULTIPLE_REGISTERS:
+                return request.value != null && request.value.length >= request.quantity && 
+                        validQuantity(request.quantity, MAX_WRITE_REGISTERS);
+            case ModbusTypes.MODBUS_FUNCTION_READ_FILE_RECORD:
+                return true;
+            default:
+                return false;
+        }
+    }
+    
+    /**
+     * Sólo se verifica la cantidad: un rango de direcciones inválido para el
+     * esclavo se responde con excepción ILLEGAL_DATA_ADDRESS.
+     */
+    private static boolean validQuantity(int quantity, int maxQuantity){
+        return quantity >= 1 && quantity <= maxQuantity;
+    }
+    
     static boolean validSlaveAddress(int slaveAddress, int expectedSlaveAddress){
         return slaveAddress == expectedSlaveAddress;
     }
@@ -151,48 +203,45 @@ public class ModbusMasterParser {
         return (function & 0x80) == 0x80;
     }
     
-    static int findValidSlaveADU(byte[] frame, int frameSize, int expectedSlaveAddress, int expectedFunction){
-        int offset_begin = 0;
-        int offset_end;
-        while (offset_begin <= frameSize - 5){
-            offset_end = offset_begin;
-            if (validSlaveAddress(frame[offset_end++] & 0xFF, expectedSlaveAddress)){
-                if (validFunction(frame[offset_end] & 0xFF, expectedFunction)){
-                    if (isException(frame[offset_end] & 0xFF))
-                        offset_end += 2;
-                    else {  //normal response
-                        switch (frame[offset_end++]){
-                            case ModbusTypes.MODBUS_FUNCTION_READ_COILS:
-                            case ModbusTypes.MODBUS_FUNCTION_READ_HOLDING_REGISTERS:
-                            case ModbusTypes.MODBUS_FUNCTION_READ_INPUT_REGISTERS:
-                            case ModbusTypes.MODBUS_FUNCTION_READ_FILE_RECORD:
-                                int byteCount = frame[offset_end++] & 0xFF;
-                                if (frame.length - offset_end < byteCount + 2){
-                                    offset_begin++;
-                                    continue;
-                                }
-                                offset_end += byteCount;
-                            break;                       
-                            case ModbusTypes.MODBUS_FUNCTION_WRITE_SINGLE_COIL:
-                            case ModbusTypes.MODBUS_FUNCTION_WRITE_SINGLE_REGISTER:
-                            case ModbusTypes.MODBUS_FUNCTION_WRITE_MULTIPLE_COILS:
-                            case ModbusTypes.MODBUS_FUNCTION_WRITE_MULTIPLE_REGISTERS:
-                                if (frame.length - offset_end < 6){
-                                    offset_begin++;
-                                    continue;
-                                }
-                                offset_end += 4;                   
-                            break;
-                        }
-                    }
-                    if (ModbusUtils.getWordFlip(frame, offset_end) == ModbusUtils.crc16(0xFFFF, frame, offset_end))
-                        return offset_begin;
-                }
-            }
-            offset_begin++;
+    /**
+     * Longitud de la ADU de respuesta (sin CRC) presente en offset.
+     * @param frame Buffer
+     * @param offset Inicio de ADU (dirección de esclavo)
+     * @param size Bytes disponibles a partir de offset
+     * @param expectedFunction Función del requerimiento
+     * @return Longitud sin CRC, 0 si no hay bytes suficientes para determinarla
+     * o -1 si la función no corresponde
+     */
+    static int responseLength(byte[] frame, int offset, int size, int expectedFunction){
+        if (size < 2)
+            return 0;
+        int function = frame[offset + 1] & 0xFF;
+        if (!validFunction(function, expectedFunction))
+            return -1;
+        if (isException(function))
+            return 3;
+        switch (function){
+            case ModbusTypes.MODBUS_FUNCTION_READ_COILS:
+            case ModbusTypes.MODBUS_FUNCTION_READ_HOLDING_REGISTERS:
+            case ModbusTypes.MODBUS_FUNCTION_READ_INPUT_REGISTERS:
+            case ModbusTypes.MODBUS_FUNCTION_READ_FILE_RECORD:
+                if (size < 3)
+                    return 0;
+                return 3 + (frame[offset + 2] & 0xFF);
+            case ModbusTypes.MODBUS_FUNCTION_WRITE_SINGLE_COIL:
+            case ModbusTypes.MODBUS_FUNCTION_WRITE_SINGLE_REGISTER:
+            case ModbusTypes.MODBUS_FUNCTION_WRITE_MULTIPLE_COILS:
+            case ModbusTypes.MODBUS_FUNCTION_WRITE_MULTIPLE_REGISTERS:
+                return 6;
         }
         return -1;
     }
+    
+    static int findValidSlaveADU(byte[] frame, int frameSize, int expectedSlaveAddress, int expectedFunction){
+        ModbusRTUFramer.Responses framer = new ModbusRTUFramer.Responses();
+        framer.expect(expectedSlaveAddress, expectedFunction);
+        return framer.scan(frame, frameSize, true);
+    }
      
     static ModbusResponse takeResponseFromADU(byte[] adu, int offset, ModbusRequest request){
         ModbusNormalResponse response = new ModbusNormalResponse();
@@ -209,9 +258,7 @@ public class ModbusMasterParser {
                         return null;
                     response.address = request.address;
                     response.quantity = request.quantity;
-                    response.value = new int[response.quantity];
-                    for (int i = 0 ; i < response.quantity ; i++)
-                        response.value[i] = (adu[offset + i / 8] & (1 << (i & 0x7))) != 0 ? 0xFF00 : 0;
+                    response.coils = ModbusCoils.valueOf(adu, offset, response.quantity);
                 break;
                 case ModbusTypes.MODBUS_FUNCTION_READ_HOLDING_REGISTERS:
                 case ModbusTypes.MODBUS_FUNCTION_READ_INPUT_REGISTERS:
@@ -235,6 +282,12 @@ public class ModbusMasterParser {
                         return null;                    
                 break;
                 case ModbusTypes.MODBUS_FUNCTION_WRITE_MULTIPLE_COILS:
+                    response.address = ModbusUtils.getWord(adu, offset); offset += 2;
+                    response.quantity = ModbusUtils.getWord(adu, offset); offset += 2;
+                    if ((response.quantity != request.quantity) || (response.address != request.address))
+                        return null;
+                    response.coils = request.coils;
+                break;
                 case ModbusTypes.MODBUS_FUNCTION_WRITE_MULTIPLE_REGISTERS:
                     response.address = ModbusUtils.getWord(adu, offset); offset += 2;
                     response.quantity = ModbusUtils.getWord(adu, offset); offset += 2;
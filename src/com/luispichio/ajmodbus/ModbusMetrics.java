@@ -0,0 +1,395 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2018 Luis Pichio.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package com.luispichio.ajmodbus;
+
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * Métricas de una línea (Maestro Modbus) y de cada esclavo (unidad) de la
+ * línea: latencia de transacción (histograma), timeouts, reintentos, errores
+ * de trama (CRC / basura), códigos de excepción, profundidad y espera de
+ * cola, bytes transferidos y ocupación del bus.
+ * El registro es sin bloqueos (contadores LongAdder / histogramas
+ * atómicos); la lectura puede hacerse desde cualquier hilo o vía JMX
+ * (register()).
+ * Latencias y tiempos en microsegundos.
+ * 
+ * @author Luis Pichio | luispichio@gmail.com | https://sites.google.com/site/luispichio/ | https://github.com/luispichio
+ */
+public class ModbusMetrics implements ModbusMetricsMXBean {
+    private static final int UNITS = ModbusTypes.MODBUS_UNITS;
+    
+    private final ModbusMaster mMaster;
+    private final LongAdder mRequests = new LongAdder();
+    private final LongAdder mResponses = new LongAdder();
+    private final LongAdder mTimeouts = new LongAdder();
+    private final LongAdder mRetries = new LongAdder();
+    private final LongAdder mFramingErrors = new LongAdder();
+    private final LongAdder mDropped = new LongAdder();
+    private final LongAdder mBytesSent = new LongAdder();
+    private final LongAdder mBytesReceived = new LongAdder();
+    private final LongAdder mBusyNanos = new LongAdder();
+    private final AtomicLongArray mExceptionCounts = new AtomicLongArray(256);
+    private final ModbusHistogram mLatency = new ModbusHistogram();
+    private final ModbusHistogram mQueueWait = new ModbusHistogram();
+    private final AtomicReferenceArray<Unit> mUnits = new AtomicReferenceArray<>(UNITS);
+    private volatile long mStart = System.nanoTime();
+    private ObjectName mObjectName;
+    
+    /**
+     * Métricas de un esclavo (unidad) de la línea.
+     */
+    public static class Unit {
+        private final LongAdder mResponses = new LongAdder();
+        private final LongAdder mTimeouts = new LongAdder();
+        private final LongAdder mRetries = new LongAdder();
+        private final LongAdder mExceptions = new LongAdder();
+        private final ModbusHistogram mLatency = new ModbusHistogram();
+        
+        public long getResponses(){
+            return mResponses.sum();
+        }
+        
+        public long getTimeouts(){
+            return mTimeouts.sum();
+        }
+        
+        public long getRetries(){
+            return mRetries.sum();
+        }
+        
+        public long getExceptions(){
+            return mExceptions.sum();
+        }
+        
+        public ModbusHistogram getLatency(){
+            return mLatency;
+        }
+        
+        void reset(){
+            mResponses.reset();
+            mTimeouts.reset();
+            mRetries.reset();
+            mExceptions.reset();
+            mLatency.reset();
+        }
+    }
+    
+    ModbusMetrics(ModbusMaster master){
+        mMaster = master;
+    }
+    
+    /**
+     * @param slaveAddress Dirección de esclavo
+     * @return Métricas del esclavo o null si no registra actividad
+     */
+    public Unit getUnit(int slaveAddress){
+        return slaveAddress >= 0 && slaveAddress < UNITS ? mUnits.get(slaveAddress) : null;
+    }
+    
+    private Unit unit(int slaveAddress){
+        if (slaveAddress < 0 || slaveAddress >= UNITS)
+            return null;
+        Unit unit = mUnits.get(slaveAddress);
+        if (unit == null){
+            mUnits.compareAndSet(slaveAddress, null, new Unit());
+            unit = mUnits.get(slaveAddress);
+        }
+        return unit;
+    }
+    
+    public ModbusHistogram getLatency(){
+        return mLatency;
+    }
+    
+    public ModbusHistogram getQueueWait(){
+        return mQueueWait;
+    }
+    
+    /*
+     * Registro (hilo del Maestro).
+     */
+    
+    void onSent(ModbusRequest request, long now){
+        mRequests.increment();
+        if (request.queued != 0)
+            mQueueWait.record((now - request.queued) / 1000);
+    }
+    
+    void onResponse(ModbusRequest request, long now){
+        long latency = (now - request.sent) / 1000;
+        mResponses.increment();
+        mLatency.record(latency);
+        Unit unit = unit(request.slaveAddress);
+        if (unit != null){
+            unit.mResponses.increment();
+            unit.mLatency.record(latency);
+        }
+    }
+    
+    void onException(int slaveAddress, int code){
+        mExceptionCounts.incrementAndGet(code & 0xFF);
+        Unit unit = unit(slaveAddress);
+        if (unit != null)
+            unit.mExceptions.increment();
+    }
+    
+    void onTimeOut(ModbusRequest request){
+        mTimeouts.increment();
+        Unit unit = unit(request.slaveAddress);
+        if (unit != null)
+            unit.mTimeouts.increment();
+    }
+    
+    void onRetry(ModbusRequest request){
+        mRetries.increment();
+        Unit unit = unit(request.slaveAddress);
+        if (unit != null)
+            unit.mRetries.increment();
+    }
+    
+    void onFramingError(){
+        mFramingErrors.increment();
+    }
+    
+    void onDropped(){
+        mDropped.increment();
+    }
+    
+    void onTX(int bytes){
+        mBytesSent.add(bytes);
+    }
+    
+    void onRX(int bytes){
+        mBytesReceived.add(bytes);
+    }
+    
+    /**
+     * Tiempo de bus ocupado (transacción en curso).
+     * @param nanos Duración [ns]
+     */
+    void onBusy(long nanos){
+        mBusyNanos.add(nanos);
+    }
+    
+    /*
+     * Lectura.
+     */
+
+    @Override
+    public long getRequests(){
+        return mRequests.sum();
+    }
+
+    @Override
+    public long getResponses(){
+        return mResponses.sum();
+    }
+
+    @Override
+    public long getTimeouts(){
+        return mTimeouts.sum();
+    }
+
+    @Override
+    public long getRetries(){
+        return mRetries.sum();
+    }
+
+    @Override
+    public long getFramingErrors(){
+        return mFramingErrors.sum();
+    }
+
+    @Override
+    public long getExceptions(){
+        long result = 0;
+        for (int i = 0 ; i < mExceptionCounts.length() ; i++)
+            result += mExceptionCounts.get(i);
+        return result;
+    }
+
+    @Override
+    public long getDropped(){
+        return mDropped.sum();
+    }
+
+    @Override
+    public long getBytesSent(){
+        return mBytesSent.sum();
+    }
+
+    @Override
+    public long getBytesReceived(){
+        return mBytesReceived.sum();
+    }
+    
+    private double elapsedSeconds(){
+        return Math.max(1, System.nanoTime() - mStart) / 1e9;
+    }
+
+    /**
+     * @return Bytes (transmitidos + recibidos) por segundo desde la creación o
+     * el último reset()
+     */
+    @Override
+    public double getBytesPerSecond(){
+        return (mBytesSent.sum() + mBytesReceived.sum()) / elapsedSeconds();
+    }
+
+    /**
+     * @return Porcentaje del tiempo con transacciones en curso desde la
+     * creación o el último reset()
+     */
+    @Override
+    public double getBusyPercent(){
+        return Math.min(100, mBusyNanos.sum() / 1e7 / elapsedSeconds());
+    }
+
+    @Override
+    public int getQueueDepth(){
+        return mMaster.pendingRequestCount();
+    }
+
+    @Override
+    public double getLatencyMean(){
+        return mLatency.getMean();
+    }
+
+    @Override
+    public long getLatencyP50(){
+        return mLatency.getValueAtPercentile(50);
+    }
+
+    @Override
+    public long getLatencyP99(){
+        return mLatency.getValueAtPercentile(99);
+    }
+
+    @Override
+    public long getLatencyMax(){
+        return mLatency.getMax();
+    }
+
+    @Override
+    public double getQueueWaitMean(){
+        return mQueueWait.getMean();
+    }
+
+    @Override
+    public long getQueueWaitP99(){
+        return mQueueWait.getValueAtPercentile(99);
+    }
+
+    @Override
+    public long[] getExceptionCounts(){
+        long[] result = new long[mExceptionCounts.length()];
+        for (int i = 0 ; i < result.length ; i++)
+            result[i] = mExceptionCounts.get(i);
+        return result;
+    }
+
+    @Override
+    public int[] getSlaveAddresses(){
+        int count = 0;
+        int[] result = new int[UNITS];
+        for (int i = 0 ; i < UNITS ; i++)
+            if (mUnits.get(i) != null)
+                result[count++] = i;
+        return Arrays.copyOf(result, count);
+    }
+
+    @Override
+    public long getSlaveLatencyPercentile(int slaveAddress, double percentile){
+        Unit unit = getUnit(slaveAddress);
+        return unit == null ? 0 : unit.mLatency.getValueAtPercentile(percentile);
+    }
+
+    @Override
+    public long getSlaveTimeouts(int slaveAddress){
+        Unit unit = getUnit(slaveAddress);
+        return unit == null ? 0 : unit.getTimeouts();
+    }
+
+    @Override
+    public long getSlaveExceptions(int slaveAddress){
+        Unit unit = getUnit(slaveAddress);
+        return unit == null ? 0 : unit.getExceptions();
+    }
+
+    @Override
+    public void reset(){
+        mRequests.reset();
+        mResponses.reset();
+        mTimeouts.reset();
+        mRetries.reset();
+        mFramingErrors.reset();
+        mDropped.reset();
+        mBytesSent.reset();
+        mBytesReceived.reset();
+        mBusyNanos.reset();
+        for (int i = 0 ; i < mExceptionCounts.length() ; i++)
+            mExceptionCounts.set(i, 0);
+        mLatency.reset();
+        mQueueWait.reset();
+        for (int i = 0 ; i < UNITS ; i++){
+            Unit unit = mUnits.get(i);
+            if (unit != null)
+                unit.reset();
+        }
+        mStart = System.nanoTime();
+    }
+    
+    /**
+     * Registra las métricas en el servidor MBean de la plataforma como
+     * com.luispichio.ajmodbus:type=ModbusMetrics,name=(name).
+     * @param name Nombre de la línea
+     * @throws JMException
+     */
+    public synchronized void register(String name) throws JMException {
+        unregister();
+        ObjectName objectName = new ObjectName("com.luispichio.ajmodbus:type=ModbusMetrics,name=" + ObjectName.quote(name));
+        ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+        mObjectName = objectName;
+    }
+    
+    /**
+     * Quita el registro JMX (si existe).
+     * @throws JMException
+     */
+    public synchronized void unregister() throws JMException {
+        if (mObjectName != null){
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(mObjectName);
+            mObjectName = null;
+        }
+    }
+}
@@ -0,0 +1,69 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2018 Luis Pichio.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package com.luispichio.ajmodbus;
+
+/**
+ * Interfaz JMX de las métricas de una línea (Maestro Modbus).
+ * Latencias y tiempos en microsegundos.
+ * 
+ * @author Luis Pichio | luispichio@gmail.com | https://sites.google.com/site/luispichio/ | https://github.com/luispichio
+ */
+public interface ModbusMetricsMXBean {
+    public long getRequests();
+    public long getResponses();
+    public long getTimeouts();
+    public long getRetries();
+    public long getFramingErrors();
+    public long getExceptions();
+    public long getDropped();
+    public long getBytesSent();
+    public long getBytesReceived();
+    public double getBytesPerSecond();
+    public double getBusyPercent();
+    public int getQueueDepth();
+    public double getLatencyMean();
+    public long getLatencyP50();
+    public long getLatencyP99();
+    public long getLatencyMax();
+    public double getQueueWaitMean();
+    public long getQueueWaitP99();
+    
+    /**
+     * @return Cantidad de respuestas de excepción por código (índice = código)
+     */
+    public long[] getExceptionCounts();
+    
+    /**
+     * @return Direcciones de esclavo con actividad
+     */
+    public int[] getSlaveAddresses();
+    
+    public long getSlaveLatencyPercentile(int slaveAddress, double percentile);
+    public long getSlaveTimeouts(int slaveAddress);
+    public long getSlaveExceptions(int slaveAddress);
+    
+    public void reset();
+}
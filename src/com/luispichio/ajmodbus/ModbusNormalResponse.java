@@ -32,4 +32,20 @@ public class ModbusNormalResponse extends ModbusResponse {
     public int address;    
     public int quantity;
     public int[] value;
+    /**
+     * Coils / entradas discretas empaquetados (funciones 0x01, 0x02 y 0x0F;
+     * value es null).
+     */
+    public ModbusCoils coils;
+    
+    /**
+     * Valores como enteros. Para coils se desempaquetan (0xFF00 / 0x0000)
+     * recién en la primera llamada.
+     * @return Valores
+     */
+    public int[] getValue(){
+        if (value == null && coils != null)
+            value = coils.toIntArray();
+        return value;
+    }
 }
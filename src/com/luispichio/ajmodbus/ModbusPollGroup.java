@@ -0,0 +1,210 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2018 Luis Pichio.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package com.luispichio.ajmodbus;
+
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Grupo de lecturas cíclicas (scan) de un Maestro Modbus.
+ * Cada ciclo del grupo se libera con su período; el Maestro envía las
+ * lecturas pendientes de los grupos por orden de vencimiento (EDF, earliest
+ * deadline first) cuando no hay requerimientos de la aplicación en cola.
+ * Si al vencer el período el ciclo anterior no terminó (línea saturada) el
+ * ciclo se saltea y se contabiliza como desborde (overrun).
+ * Las lecturas se mantienen ordenadas por esclavo, función y dirección, y el
+ * ciclo se encola completo: las lecturas contiguas de un mismo esclavo
+ * quedan consecutivas en la cola y pueden fusionarse (coalesceGap).
+ * 
+ * @author Luis Pichio | luispichio@gmail.com | https://sites.google.com/site/luispichio/ | https://github.com/luispichio
+ */
+public class ModbusPollGroup {
+    final int mPeriod;
+    private final long mPeriodNanos;
+    final ArrayList<ModbusRequest> mRequests = new ArrayList<>();
+    /**
+     * Instantes [ns] (System.nanoTime(), inmune a ajustes del reloj) de
+     * liberación del ciclo en curso y de vencimiento del período.
+     */
+    long mRelease;
+    long mDeadline;
+    int mNext;
+    int mPending;
+    
+    private long mCycles;
+    private long mOverruns;
+    private long mLastCycleTime;
+
+    ModbusPollGroup(int period){
+        mPeriod = period;
+        mPeriodNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(1, period));
+    }
+    
+    private ModbusPollGroup add(int function, int slaveAddress, int address, int quantity){
+        ModbusRequest request = new ModbusRequest();
+        request.function = function;
+        request.slaveAddress = slaveAddress;
+        request.address = address;
+        request.quantity = quantity;
+        request.priority = ModbusRequestPriority.LOW;
+        request.pollGroup = this;
+        ModbusMaster.validate(request);
+        synchronized (this){
+            int index = mRequests.size();
+            while (index > 0 && compare(mRequests.get(index - 1), request) > 0)
+                index--;
+            mRequests.add(index, request);
+            //con un ciclo en curso la lectura se incorpora al mismo si aún no
+            //se encolaron las lecturas que la siguen
+            if (index < mNext)
+                mNext++;
+            else if (mPending > 0)
+                mPending++;
+        }
+        return this;
+    }
+    
+    /**
+     * Orden de las lecturas: esclavo, función y dirección.
+     */
+    private static int compare(ModbusRequest a, ModbusRequest b){
+        if (a.slaveAddress != b.slaveAddress)
+            return Integer.compare(a.slaveAddress, b.slaveAddress);
+        if (a.function != b.function)
+            return Integer.compare(a.function, b.function);
+        return Integer.compare(a.address, b.address);
+    }
+    
+    /**
+     * Agrega lectura cíclica de coils.
+     * @param slaveAddress Dirección de esclavo.
+     * @param address Dirección de primera Coil.
+     * @param quantity Cantidad de Coil's.
+     * @return El grupo
+     */
+    public ModbusPollGroup readCoils(int slaveAddress, int address, int quantity){
+        return add(ModbusTypes.MODBUS_FUNCTION_READ_COILS, slaveAddress, address, quantity);
+    }
+    
+    /**
+     * Agrega lectura cíclica de registros holding.
+     * @param slaveAddress Dirección de esclavo.
+     * @param address Dirección de primer registro.
+     * @param quantity Cantidad de registros.
+     * @return El grupo
+     */
+    public ModbusPollGroup readHoldingRegisters(int slaveAddress, int address, int quantity){
+        return add(ModbusTypes.MODBUS_FUNCTION_READ_HOLDING_REGISTERS, slaveAddress, address, quantity);
+    }
+    
+    /**
+     * Agrega lectura cíclica de registros input.
+     * @param slaveAddress Dirección de esclavo.
+     * @param address Dirección de primer registro.
+     * @param quantity Cantidad de registros.
+     * @return El grupo
+     */
+    public ModbusPollGroup readInputRegisters(int slaveAddress, int address, int quantity){
+        return add(ModbusTypes.MODBUS_FUNCTION_READ_INPUT_REGISTERS, slaveAddress, address, quantity);
+    }
+    
+    /**
+     * Período del grupo.
+     * @return Período [ms]
+     */
+    public int getPeriod(){
+        return mPeriod;
+    }
+    
+    /**
+     * Cantidad de ciclos completados.
+     * @return Ciclos completados
+     */
+    public synchronized long getCycles(){
+        return mCycles;
+    }
+    
+    /**
+     * Cantidad de ciclos salteados por no haber terminado el ciclo anterior.
+     * @return Ciclos salteados
+     */
+    public synchronized long getOverruns(){
+        return mOverruns;
+    }
+    
+    /**
+     * Duración del último ciclo completado (liberación a última respuesta).
+     * @return Duración [ms]
+     */
+    public synchronized long getLastCycleTime(){
+        return TimeUnit.NANOSECONDS.toMillis(mLastCycleTime);
+    }
+    
+    /**
+     * Libera un nuevo ciclo si venció el período.
+     * @param now Instante actual [ns]
+     */
+    synchronized void release(long now, int retrys){
+        if (now - mDeadline < 0 || mRequests.isEmpty())
+            return;
+        if (mPending > 0){
+            mOverruns++;
+        } else {
+            mRelease = now;
+            mNext = 0;
+            mPending = mRequests.size();
+            for (ModbusRequest request : mRequests){
+                request.retrys = retrys;
+                request.split = false;
+            }
+        }
+        mDeadline += mPeriodNanos;
+        if (mDeadline - now <= 0){
+            //se saltean los ciclos perdidos
+            long lost = (now - mDeadline) / mPeriodNanos + 1;
+            mOverruns += lost;
+            mDeadline += lost * mPeriodNanos;
+        }
+    }
+    
+    synchronized boolean hasNext(){
+        return mPending > 0 && mNext < mRequests.size();
+    }
+    
+    synchronized ModbusRequest next(){
+        return mRequests.get(mNext++);
+    }
+    
+    /**
+     * Fin (respuesta o descarte) de un requerimiento del ciclo.
+     */
+    synchronized void finish(long now){
+        if (mPending > 0 && --mPending == 0){
+            mCycles++;
+            mLastCycleTime = now - mRelease;
+        }
+    }
+}
@@ -0,0 +1,372 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2018 Luis Pichio.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package com.luispichio.ajmodbus;
+
+import java.util.BitSet;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * Imagen de proceso del lado Maestro.
+ * Caché de coils y registros (holding e input) por esclavo que las respuestas
+ * del Maestro actualizan en el lugar, junto con el instante de la última
+ * lectura de cada valor. Las lecturas con antigüedad máxima (maxAge) se
+ * resuelven desde la imagen sin acceder al bus (ModbusAsyncMaster,
+ * ModbusClient) y los consumidores pueden suscribirse sólo a los cambios,
+ * con banda muerta configurable por valor o rango (ModbusDeadband).
+ * 
+ * Los valores se guardan en páginas de 256 (int[] de valores, long[] de
+ * instantes System.nanoTime() y un mapa de bits de valores leídos) creadas a
+ * demanda. La antigüedad se mide con el reloj monotónico: los ajustes del
+ * reloj del sistema no afectan la validez de la imagen. Las lecturas son optimistas (StampedLock):
+ * no bloquean al hilo del Maestro.
+ * 
+ * @author Luis Pichio | luispichio@gmail.com | https://sites.google.com/site/luispichio/ | https://github.com/luispichio
+ */
+public class ModbusProcessImage {
+    private static final int PAGE_BITS = 8;
+    private static final int PAGE_SIZE = 1 << PAGE_BITS;
+    private static final int PAGE_MASK = PAGE_SIZE - 1;
+    private static final int PAGES = 0x10000 >> PAGE_BITS;
+    private static final int SLAVES = ModbusTypes.MODBUS_UNITS;
+    private static final int TABLES = 3;
+    
+    private final StampedLock mLock = new StampedLock();
+    private final Page[][] mTables = new Page[SLAVES * TABLES][];
+    private final CopyOnWriteArrayList<ModbusProcessImageListener> mListeners = new CopyOnWriteArrayList<>();
+    
+    private static final class Page {
+        final int[] values = new int[PAGE_SIZE];
+        final long[] timestamps = new long[PAGE_SIZE];
+        //valores leídos al menos una vez
+        final long[] valid = new long[PAGE_SIZE >> 6];
+        
+        boolean isValid(int offset){
+            return (valid[offset >> 6] & (1L << offset)) != 0;
+        }
+        //último valor reportado y banda muerta (a demanda)
+        final int[] reported = new int[PAGE_SIZE];
+        byte[] deadbandTypes;
+        int[] deadbands;
+    }
+    
+    private static Page page(Page[] pages, int address){
+        Page page = pages[address >> PAGE_BITS];
+        if (page == null)
+            page = pages[address >> PAGE_BITS] = new Page();
+        return page;
+    }
+    
+    private Page[] pages(int index){
+        Page[] pages = mTables[index];
+        if (pages == null)
+            pages = mTables[index] = new Page[PAGES];
+        return pages;
+    }
+    
+    private static final ModbusDeadband[] DEADBANDS = ModbusDeadband.values();
+    
+    /**
+     * Tabla correspondiente a una función (lectura o escritura).
+     * @return Índice de tabla o -1 si la función no corresponde a una tabla
+     */
+    static int table(int function){
+        switch (function){
+            case ModbusTypes.MODBUS_FUNCTION_READ_COILS:
+            case ModbusTypes.MODBUS_FUNCTION_WRITE_SINGLE_COIL:
+            case ModbusTypes.MODBUS_FUNCTION_WRITE_MULTIPLE_COILS:
+                return 0;
+            case ModbusTypes.MODBUS_FUNCTION_READ_HOLDING_REGISTERS:
+            case ModbusTypes.MODBUS_FUNCTION_WRITE_SINGLE_REGISTER:
+            case ModbusTypes.MODBUS_FUNCTION_WRITE_MULTIPLE_REGISTERS:
+                return 1;
+            case ModbusTypes.MODBUS_FUNCTION_READ_INPUT_REGISTERS:
+                return 2;
+        }
+        return -1;
+    }
+    
+    private static final int[] READ_FUNCTIONS = {
+        ModbusTypes.MODBUS_FUNCTION_READ_COILS,
+        ModbusTypes.MODBUS_FUNCTION_READ_HOLDING_REGISTERS,
+        ModbusTypes.MODBUS_FUNCTION_READ_INPUT_REGISTERS,
+    };
+    
+    private static int index(int slaveAddress, int table){
+        if (slaveAddress <= 0 || slaveAddress >= SLAVES || table < 0)
+            return -1;
+        return slaveAddress * TABLES + table;
+    }
+    
+    public void addListener(ModbusProcessImageListener listener){
+        mListeners.add(listener);
+    }
+    
+    public void removeListener(ModbusProcessImageListener listener){
+        mListeners.remove(listener);
+    }
+    
+    /**
+     * Configura la banda muerta de un rango de valores.
+     * Los valores se comparan sin signo (0 .. 65535; coils 0 / 0xFF00).
+     * @param slaveAddress Dirección de esclavo
+     * @param function Tabla (código de función de lectura: 0x01, 0x03 o 0x04)
+     * @param address Dirección del primer valor
+     * @param quantity Cantidad de valores
+     * @param type Tipo de banda muerta
+     * @param deadband Banda (ABSOLUTE), porcentaje (PERCENT) o máscara (MASK)
+     */
+    public void setDeadband(int slaveAddress, int function, int address, int quantity, ModbusDeadband type, double deadband){
+        int index = index(slaveAddress, table(function));
+        if (index == -1)
+            return;
+        //PERCENT se guarda en centésimas de porcentaje
+        int value = type == ModbusDeadband.PERCENT ? (int) Math.round(deadband * 100) : (int) deadband;
+        long stamp = mLock.writeLock();
+        try {
+            Page[] pages = pages(index);
+            for (int i = 0 ; i < quantity ; i++){
+                int a = (address + i) & 0xFFFF;
+                Page page = page(pages, a);
+                if (page.deadbandTypes == null){
+                    page.deadbandTypes = new byte[PAGE_SIZE];
+                    page.deadbands = new int[PAGE_SIZE];
+                }
+                page.deadbandTypes[a & PAGE_MASK] = (byte) type.ordinal();
+                page.deadbands[a & PAGE_MASK] = value;
+            }
+        } finally {
+            mLock.unlockWrite(stamp);
+        }
+    }
+    
+    /**
+     * Evalúa si un valor debe reportarse respecto del último reportado.
+     */
+    private static boolean report(Page page, int offset, int value){
+        int reported = page.reported[offset];
+        ModbusDeadband type = page.deadbandTypes == null ? ModbusDeadband.NONE : DEADBANDS[page.deadbandTypes[offset]];
+        switch (type){
+            case ABSOLUTE:
+                return Math.abs(value - reported) > page.deadbands[offset];
+            case PERCENT:
+                if (reported == 0)
+                    return value != 0;
+                return Math.abs(value - reported) * 10000L > (long) page.deadbands[offset] * Math.abs(reported);
+            case MASK:
+                return ((value ^ reported) & page.deadbands[offset]) != 0;
+            default:
+                return value != reported;
+        }
+    }
+    
+    /**
+     * Actualiza la imagen con la respuesta a un requerimiento.
+     * Las lecturas actualizan la tabla leída; las escrituras confirmadas
+     * actualizan coils y registros holding con los valores escritos.
+     * @param request Requerimiento
+     * @param response Respuesta normal al requerimiento
+     */
+    void update(ModbusRequest request, ModbusNormalResponse response){
+        int table = table(response.function);
+        int index = index(response.slaveAddress, table);
+        if (index == -1)
+            return;
+        int[] value = null;
+        //coils: los bits se leen empaquetados
+        ModbusCoils coils = null;
+        int quantity;
+        switch (response.function){
+            case ModbusTypes.MODBUS_FUNCTION_WRITE_MULTIPLE_COILS:
+                coils = request.coils;
+                quantity = Math.min(response.quantity, coils == null ? 0 : coils.size());
+            break;
+            case ModbusTypes.MODBUS_FUNCTION_WRITE_MULTIPLE_REGISTERS:
+                value = request.value;
+                quantity = Math.min(response.quantity, value == null ? 0 : value.length);
+            break;
+            case ModbusTypes.MODBUS_FUNCTION_READ_COILS:
+                coils = response.coils;
+                quantity = Math.min(response.quantity, coils == null ? 0 : coils.size());
+            break;
+            default:
+                value = response.value;
+                quantity = response.function == ModbusTypes.MODBUS_FUNCTION_WRITE_SINGLE_COIL || 
+                        response.function == ModbusTypes.MODBUS_FUNCTION_WRITE_SINGLE_REGISTER ? 1 : response.quantity;
+        }
+        if ((value == null && coils == null) || quantity <= 0)
+            return;
+        long now = System.nanoTime();
+        BitSet changed = null;
+        long stamp = mLock.writeLock();
+        try {
+            Page[] pages = pages(index);
+            for (int i = 0 ; i < quantity ; i++){
+                int address = (response.address + i) & 0xFFFF;
+                Page page = page(pages, address);
+                int offset = address & PAGE_MASK;
+                int v = coils != null ? (coils.get(i) ? 0xFF00 : 0x0000) : value[i];
+                if (!page.isValid(offset) || report(page, offset, v)){
+                    page.reported[offset] = v;
+                    if (changed == null)
+                        changed = new BitSet(quantity);
+                    changed.set(i);
+                }
+                page.values[offset] = v;
+                page.timestamps[offset] = now;
+                page.valid[offset >> 6] |= 1L << offset;
+            }
+        } finally {
+            mLock.unlockWrite(stamp);
+        }
+        if (changed == null || mListeners.isEmpty())
+            return;
+        //los "escuchadores" reciben enteros: coils desempaquetados sólo si hay cambios
+        if (value == null)
+            value = coils.toIntArray();
+        for (ModbusProcessImageListener listener : mListeners)
+            listener.onProcessImageChange(response.slaveAddress, READ_FUNCTIONS[table], response.address, value, changed);
+    }
+    
+    /**
+     * Copia valores recientes a destination (enteros) o coils (empaquetados).
+     */
+    private boolean copy(int index, int address, int quantity, long now, long maxAge, int[] destination, ModbusCoils coils){
+        Page[] pages = mTables[index];
+        if (pages == null)
+            return false;
+        for (int i = 0 ; i < quantity ; i++){
+            int a = (address + i) & 0xFFFF;
+            Page page = pages[a >> PAGE_BITS];
+            if (page == null)
+                return false;
+            //diferencia de instantes: inmune al desborde de nanoTime
+            if (!page.isValid(a & PAGE_MASK) || now - page.timestamps[a & PAGE_MASK] > maxAge)
+                return false;
+            if (coils != null)
+                coils.set(i, page.values[a & PAGE_MASK] != 0);
+            else
+                destination[i] = page.values[a & PAGE_MASK];
+        }
+        return true;
+    }
+    
+    /**
+     * Lectura de valores con antigüedad máxima.
+     * @param slaveAddress Dirección de esclavo
+     * @param function Tabla (código de función de lectura: 0x01, 0x03 o 0x04)
+     * @param address Dirección del primer valor
+     * @param quantity Cantidad de valores
+     * @param maxAge Antigüedad máxima [ms] de todos los valores
+     * @param destination Vector destino (al menos quantity valores)
+     * @return true si todos los valores están en la imagen y son recientes
+     */
+    public boolean read(int slaveAddress, int function, int address, int quantity, long maxAge, int[] destination){
+        return read(slaveAddress, function, address, quantity, maxAge, destination, null);
+    }
+    
+    /**
+     * Lectura de coils (empaquetados) con antigüedad máxima.
+     * @param slaveAddress Dirección de esclavo
+     * @param address Dirección de la primera coil
+     * @param maxAge Antigüedad máxima [ms] de todos los valores
+     * @param destination Coils destino (quantity = destination.size())
+     * @return true si todos los valores están en la imagen y son recientes
+     */
+    public boolean readCoils(int slaveAddress, int address, long maxAge, ModbusCoils destination){
+        return read(slaveAddress, ModbusTypes.MODBUS_FUNCTION_READ_COILS, address, destination.size(), maxAge, null, destination);
+    }
+    
+    private boolean read(int slaveAddress, int function, int address, int quantity, long maxAge, int[] destination, ModbusCoils coils){
+        int index = index(slaveAddress, table(function));
+        if (index == -1)
+            return false;
+        long now = System.nanoTime();
+        long maxAgeNanos = TimeUnit.MILLISECONDS.toNanos(maxAge);
+        long stamp = mLock.tryOptimisticRead();
+        boolean result = copy(index, address, quantity, now, maxAgeNanos, destination, coils);
+        if (mLock.validate(stamp))
+            return result;
+        stamp = mLock.readLock();
+        try {
+            return copy(index, address, quantity, now, maxAgeNanos, destination, coils);
+        } finally {
+            mLock.unlockRead(stamp);
+        }
+    }
+    
+    /**
+     * Respuesta equivalente a una lectura, desde la imagen.
+     * @param request Requerimiento de lectura
+     * @param maxAge Antigüedad máxima [ms]
+     * @return Respuesta o null si los valores no están en la imagen o no son recientes
+     */
+    ModbusNormalResponse response(ModbusRequest request, long maxAge){
+        if (ModbusRequestCoalescer.maxQuantity(request.function) == 0)
+            return null;
+        int[] value = null;
+        ModbusCoils coils = null;
+        if (table(request.function) == 0)
+            coils = new ModbusCoils(request.quantity);
+        else
+            value = new int[request.quantity];
+        if (!read(request.slaveAddress, request.function, request.address, request.quantity, maxAge, value, coils))
+            return null;
+        ModbusNormalResponse response = new ModbusNormalResponse();
+        response.slaveAddress = request.slaveAddress;
+        response.function = request.function;
+        response.address = request.address;
+        response.quantity = request.quantity;
+        response.value = value;
+        response.coils = coils;
+        return response;
+    }
+    
+    /**
+     * Antigüedad de un valor (tiempo desde su última lectura).
+     * @param slaveAddress Dirección de esclavo
+     * @param function Tabla (código de función de lectura: 0x01, 0x03 o 0x04)
+     * @param address Dirección
+     * @return Antigüedad [ms] o -1 si nunca fue leído
+     */
+    public long age(int slaveAddress, int function, int address){
+        int index = index(slaveAddress, table(function));
+        if (index == -1)
+            return -1;
+        long stamp = mLock.readLock();
+        try {
+            Page[] pages = mTables[index];
+            Page page = pages == null ? null : pages[(address & 0xFFFF) >> PAGE_BITS];
+            int offset = address & PAGE_MASK;
+            if (page == null || !page.isValid(offset))
+                return -1;
+            return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - page.timestamps[offset]);
+        } finally {
+            mLock.unlockRead(stamp);
+        }
+    }
+}
@@ -0,0 +1,48 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2018 Luis Pichio.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package com.luispichio.ajmodbus;
+
+import java.util.BitSet;
+
+/**
+ * "Escuchador" de cambios de la imagen de proceso (ModbusProcessImage).
+ * 
+ * @author Luis Pichio | luispichio@gmail.com | https://sites.google.com/site/luispichio/ | https://github.com/luispichio
+ */
+public interface ModbusProcessImageListener {
+
+    /**
+     * Evento de cambio de valores.
+     * Se genera desde el hilo del Maestro sólo si alguno de los valores
+     * actualizados cambió fuera de su banda muerta (o se leyó por primera vez).
+     * @param slaveAddress Dirección de esclavo
+     * @param function Tabla (código de función de lectura: 0x01, 0x03 o 0x04)
+     * @param address Dirección del primer valor actualizado
+     * @param value Valores actualizados (a partir de address)
+     * @param changed Índices (relativos a address) de los valores cambiados
+     */
+    public void onProcessImageChange(int slaveAddress, int function, int address, int[] value, BitSet changed);
+}
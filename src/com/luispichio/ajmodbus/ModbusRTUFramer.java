@@ -0,0 +1,125 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2018 Luis Pichio.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package com.luispichio.ajmodbus;
+
+/**
+ * Delimitador (framer) incremental de ADUs Modbus RTU.
+ * Determina la longitud esperada de cada ADU a partir de su cabecera
+ * (código de función y, si corresponde, cantidad de bytes), por lo que
+ * reconoce una trama completa apenas llega su último byte sin esperar el
+ * silencio de fin de trama. Conserva la posición de búsqueda entre llamadas:
+ * cada posición del buffer se descarta una única vez y el CRC se calcula
+ * sólo sobre la longitud candidata, con lo que la resincronización sobre
+ * ruido es lineal en la cantidad de bytes recibidos.
+ * 
+ * @author Luis Pichio | luispichio@gmail.com | https://sites.google.com/site/luispichio/ | https://github.com/luispichio
+ */
+abstract class ModbusRTUFramer {
+    private int mScanOffset;
+    private int mFrameLength;
+    
+    /**
+     * Longitud de la ADU candidata (sin CRC) que comienza en offset.
+     * @param frame Buffer
+     * @param offset Posición candidata
+     * @param size Bytes disponibles a partir de offset
+     * @return Longitud sin CRC, 0 si faltan bytes para determinarla o -1 si
+     * la cabecera no es válida
+     */
+    abstract int aduLength(byte[] frame, int offset, int size);
+    
+    /**
+     * Reinicia la búsqueda (buffer de recepción vaciado).
+     */
+    void reset(){
+        mScanOffset = 0;
+        mFrameLength = 0;
+    }
+    
+    /**
+     * Longitud (con CRC) de la última ADU encontrada.
+     * @return Longitud de ADU
+     */
+    int frameLength(){
+        return mFrameLength;
+    }
+    
+    /**
+     * Continúa la búsqueda de una ADU válida.
+     * @param frame Buffer de recepción
+     * @param frameSize Bytes en el buffer
+     * @param complete true si se cumplió el silencio de fin de trama (no se
+     * esperan más bytes): las candidatas incompletas se descartan
+     * @return Posición de la ADU válida o -1
+     */
+    int scan(byte[] frame, int frameSize, boolean complete){
+        while (mScanOffset < frameSize){
+            int length = aduLength(frame, mScanOffset, frameSize - mScanOffset);
+            if (length == 0 || (length > 0 && mScanOffset + length + 2 > frameSize)){
+                if (!complete)
+                    return -1;
+            } else if (length > 0 && ModbusUtils.getWordFlip(frame, mScanOffset + length) == ModbusUtils.crc16(0xFFFF, frame, mScanOffset, length)){
+                mFrameLength = length + 2;
+                return mScanOffset;
+            }
+            mScanOffset++;
+        }
+        return -1;
+    }
+    
+    /**
+     * Delimitador de requerimientos (Esclavo).
+     */
+    static class Requests extends ModbusRTUFramer {
+        @Override
+        int aduLength(byte[] frame, int offset, int size){
+            if (!ModbusSlaveParser.validAddressSlave(frame[offset] & 0xFF))
+                return -1;
+            return ModbusSlaveParser.requestLength(frame, offset, size);
+        }
+    }
+    
+    /**
+     * Delimitador de respuestas de un esclavo / función esperados (Maestro).
+     */
+    static class Responses extends ModbusRTUFramer {
+        private int mSlaveAddress;
+        private int mFunction;
+        
+        void expect(int slaveAddress, int function){
+            mSlaveAddress = slaveAddress;
+            mFunction = function;
+            reset();
+        }
+
+        @Override
+        int aduLength(byte[] frame, int offset, int size){
+            if (!ModbusMasterParser.validSlaveAddress(frame[offset] & 0xFF, mSlaveAddress))
+                return -1;
+            return ModbusMasterParser.responseLength(frame, offset, size, mFunction);
+        }
+    }
+}
@@ -0,0 +1,99 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2018 Luis Pichio.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package com.luispichio.ajmodbus;
+
+/**
+ * Tiempos de trama Modbus RTU derivados de la velocidad y el formato de
+ * caracter: t1.5 (máximo silencio entre caracteres de una trama) y t3.5
+ * (silencio mínimo entre tramas).
+ * Por encima de 19200 baudios se utilizan los valores fijos de la
+ * especificación (750 us y 1750 us).
+ * 
+ * @author Luis Pichio | luispichio@gmail.com | https://sites.google.com/site/luispichio/ | https://github.com/luispichio
+ */
+public class ModbusRTUTiming {
+    private final long mCharacterNanos;
+    private final long mT15Nanos;
+    private final long mT35Nanos;
+    
+    /**
+     * Formato de caracter por defecto de la especificación (8 bits de datos,
+     * paridad par, 1 bit de parada).
+     * @param baudRate Velocidad [baudios]
+     */
+    public ModbusRTUTiming(int baudRate){
+        this(baudRate, 8, true, 1);
+    }
+    
+    /**
+     * @param baudRate Velocidad [baudios]
+     * @param dataBits Bits de datos
+     * @param parity true si hay bit de paridad (par o impar)
+     * @param stopBits Bits de parada
+     */
+    public ModbusRTUTiming(int baudRate, int dataBits, boolean parity, int stopBits){
+        if (baudRate <= 0)
+            throw new IllegalArgumentException("Velocidad inválida: " + baudRate);
+        int bits = 1 + dataBits + (parity ? 1 : 0) + stopBits;
+        mCharacterNanos = bits * 1000000000L / baudRate;
+        if (baudRate > 19200){
+            mT15Nanos = 750000;
+            mT35Nanos = 1750000;
+        } else {
+            mT15Nanos = mCharacterNanos * 3 / 2;
+            mT35Nanos = mCharacterNanos * 7 / 2;
+        }
+    }
+    
+    /**
+     * @return Duración de un caracter [ns]
+     */
+    public long getCharacterNanos(){
+        return mCharacterNanos;
+    }
+    
+    /**
+     * @return t1.5 [ns]
+     */
+    public long getT15Nanos(){
+        return mT15Nanos;
+    }
+    
+    /**
+     * @return t3.5 [ns]
+     */
+    public long getT35Nanos(){
+        return mT35Nanos;
+    }
+    
+    /**
+     * @param size Bytes de la trama
+     * @return Duración de la transmisión de la trama [ns]
+     */
+    public long getFrameNanos(int size){
+        return size * mCharacterNanos;
+    }
+}
@@ -24,6 +24,9 @@
 
 package com.luispichio.ajmodbus;
 
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+
 /**
  *
  * @author Luis Pichio | luispichio@gmail.com | https://sites.google.com/site/luispichio/ | https://github.com/luispichio
@@ -34,10 +37,143 @@ public class ModbusRequest {
     public int address;
     public int quantity;
     public int[] value;
+    /**
+     * Coils empaquetados (función 0x0F; value es null).
+     */
+    public ModbusCoils coils;
     
     public int fileNumber;
     public int recordNumber;
     public int recordLength;
     
     public int retrys;
+    
+    /**
+     * Plazo [ms] desde el encolado tras el cual el requerimiento se abandona
+     * (no se envía ni se reintenta). 0 utiliza ModbusMaster.requestDeadline.
+     */
+    public int deadline;
+    
+    /**
+     * Identificador de transacción (Modbus TCP).
+     */
+    public int transactionId;
+    
+    /**
+     * Instantes [ns] de encolado y de envío (métricas).
+     */
+    long queued;
+    long sent;
+    
+    /**
+     * Vencimiento [ns] del plazo (0 sin plazo) y reintentos realizados.
+     */
+    long expires;
+    int attempts;
+    
+    /**
+     * Timeout de respuesta [ms] del envío en curso.
+     */
+    int timeOut;
+    
+    ModbusRequestPriority priority;
+    
+    ModbusRequest[] coalesced;
+    boolean split;
+    
+    ModbusPollGroup pollGroup;
+    
+    CompletableFuture<ModbusNormalResponse> future;
+    
+    public static ModbusRequest readCoils(int slaveAddress, int address, int quantity){
+        ModbusRequest request = new ModbusRequest();
+        request.function = ModbusTypes.MODBUS_FUNCTION_READ_COILS;
+        request.slaveAddress = slaveAddress;
+        request.address = address;
+        request.quantity = quantity;
+        return request;
+    }
+    
+    public static ModbusRequest readHoldingRegisters(int slaveAddress, int address, int quantity){
+        ModbusRequest request = new ModbusRequest();
+        request.function = ModbusTypes.MODBUS_FUNCTION_READ_HOLDING_REGISTERS;
+        request.slaveAddress = slaveAddress;
+        request.address = address;
+        request.quantity = quantity;
+        return request;
+    }
+    
+    public static ModbusRequest readInputRegisters(int slaveAddress, int address, int quantity){
+        ModbusRequest request = new ModbusRequest();
+        request.function = ModbusTypes.MODBUS_FUNCTION_READ_INPUT_REGISTERS;
+        request.slaveAddress = slaveAddress;
+        request.address = address;
+        request.quantity = quantity;
+        return request;
+    }
+    
+    public static ModbusRequest writeSingleCoil(int slaveAddress, int address, boolean value){
+        ModbusRequest request = new ModbusRequest();
+        request.function = ModbusTypes.MODBUS_FUNCTION_WRITE_SINGLE_COIL;
+        request.slaveAddress = slaveAddress;
+        request.address = address;
+        request.value = new int[1];
+        request.value[0] = value ? 0xFF00 : 0x0000;
+        return request;
+    }
+    
+    public static ModbusRequest writeSingleRegister(int slaveAddress, int address, int value){
+        ModbusRequest request = new ModbusRequest();
+        request.function = ModbusTypes.MODBUS_FUNCTION_WRITE_SINGLE_REGISTER;
+        request.slaveAddress = slaveAddress;
+        request.address = address;
+        request.value = new int[1];
+        request.value[0] = value;
+        return request;
+    }
+    
+    public static ModbusRequest writeMultipleCoils(int slaveAddress, int address, int quantity, int value[]){
+        return writeMultipleCoils(slaveAddress, address, ModbusCoils.valueOf(value, quantity));
+    }
+    
+    public static ModbusRequest writeMultipleCoils(int slaveAddress, int address, ModbusCoils coils){
+        ModbusRequest request = new ModbusRequest();
+        request.function = ModbusTypes.MODBUS_FUNCTION_WRITE_MULTIPLE_COILS;
+        request.slaveAddress = slaveAddress;
+        request.address = address;
+        request.quantity = coils.size();
+        request.coils = coils;
+        return request;
+    }
+    
+    /**
+     * Valores como enteros. Para coils se desempaquetan (0xFF00 / 0x0000)
+     * recién en la primera llamada.
+     * @return Valores
+     */
+    public int[] getValue(){
+        if (value == null && coils != null)
+            value = coils.toIntArray();
+        return value;
+    }
+    
+    public static ModbusRequest writeMultipleRegisters(int slaveAddress, int address, int quantity, int value[]){
+        ModbusRequest request = new ModbusRequest();
+        request.function = ModbusTypes.MODBUS_FUNCTION_WRITE_MULTIPLE_REGISTERS;
+        request.slaveAddress = slaveAddress;
+        request.address = address;
+        request.quantity = quantity;
+        request.value = Arrays.copyOf(value, quantity);
+        return request;
+    }
+    
+    public static ModbusRequest readFileRecord(int slaveAddress, int fileNumber, int recordNumber, int recordLength){
+        ModbusRequest request = new ModbusRequest();
+        request.function = ModbusTypes.MODBUS_FUNCTION_READ_FILE_RECORD;
+        request.slaveAddress = slaveAddress;
+        request.fileNumber = fileNumber;
+        request.recordNumber = recordNumber;
+        request.recordLength = recordLength;
+        return request;
+    }
 }
@@ -0,0 +1,151 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2018 Luis Pichio.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package com.luispichio.ajmodbus;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Iterator;
+
+/**
+ * Optimizador de lecturas encoladas.
+ * Fusiona las lecturas (coils, registros holding e input) de un mismo esclavo
+ * y función consecutivas al frente de la cola en un único requerimiento,
+ * respetando los límites de Modbus (125 registros, 2000 coils) y una
+ * separación máxima entre bloques. La respuesta se reparte luego entre los
+ * requerimientos originales.
+ * 
+ * @author Luis Pichio | luispichio@gmail.com | https://sites.google.com/site/luispichio/ | https://github.com/luispichio
+ */
+class ModbusRequestCoalescer {
+    static final int MAX_REGISTERS = ModbusMasterParser.MAX_READ_REGISTERS;
+    static final int MAX_COILS = ModbusMasterParser.MAX_READ_COILS;
+    
+    static int maxQuantity(int function){
+        switch (function){
+            case ModbusTypes.MODBUS_FUNCTION_READ_COILS:
+                return MAX_COILS;
+            case ModbusTypes.MODBUS_FUNCTION_READ_HOLDING_REGISTERS:
+            case ModbusTypes.MODBUS_FUNCTION_READ_INPUT_REGISTERS:
+                return MAX_REGISTERS;
+        }
+        return 0;
+    }
+    
+    private static boolean candidate(ModbusRequest head, ModbusRequest request){
+        return request.slaveAddress == head.slaveAddress && request.function == head.function && 
+                request.coalesced == null && !request.split;
+    }
+    
+    /**
+     * Fusiona la primera de la cola con las lecturas compatibles que la siguen
+     * inmediatamente en su carril (las lecturas de un grupo cíclico o de un
+     * lote se encolan juntas). La búsqueda se detiene en el primer
+     * requerimiento que no puede fusionarse: el costo es proporcional a la
+     * cantidad de lecturas fusionadas y no al largo de la cola.
+     * El requerimiento fusionado reemplaza a los originales al frente de la cola.
+     * @param queue Cola de requerimientos (no vacía)
+     * @param gap Separación máxima entre bloques (registros / coils)
+     */
+    static void coalesce(ModbusRequestQueue queue, int gap){
+        ModbusRequest head = queue.peek();
+        ArrayDeque<ModbusRequest> tail = queue.lane(head.priority);
+        int limit = maxQuantity(head.function);
+        if (gap < 0 || limit == 0 || !candidate(head, head) || head.slaveAddress == 0)
+            return;
+        int first = head.address;
+        int last = head.address + head.quantity;
+        int count = 1;
+        Iterator<ModbusRequest> iterator = tail.iterator();
+        iterator.next();
+        while (iterator.hasNext()){
+            ModbusRequest next = iterator.next();
+            if (!candidate(head, next))
+                break;
+            //separación a uno u otro lado del bloque acumulado (sin orden de direcciones)
+            int begin = Math.min(first, next.address);
+            int end = Math.max(last, next.address + next.quantity);
+            if (next.address - last > gap || first - (next.address + next.quantity) > gap || end - begin > limit)
+                break;
+            first = begin;
+            last = end;
+            count++;
+        }
+        if (count < 2)
+            return;
+        ModbusRequest request = new ModbusRequest();
+        request.slaveAddress = head.slaveAddress;
+        request.function = head.function;
+        request.address = first;
+        request.quantity = last - first;
+        request.retrys = head.retrys;
+        request.priority = head.priority;
+        request.queued = head.queued;
+        request.coalesced = new ModbusRequest[count];
+        for (int i = 0 ; i < count ; i++)
+            request.coalesced[i] = tail.pollFirst();
+        //el fusionado se abandona recién cuando vence el plazo de todos
+        request.expires = head.expires;
+        for (ModbusRequest child : request.coalesced)
+            if (child.expires == 0 || (request.expires != 0 && child.expires - request.expires > 0))
+                request.expires = child.expires;
+        tail.addFirst(request);
+    }
+    
+    /**
+     * Reparte la respuesta de un requerimiento fusionado.
+     * @param request Requerimiento fusionado
+     * @param response Respuesta al requerimiento fusionado
+     * @param child Requerimiento original
+     * @return Respuesta correspondiente al requerimiento original
+     */
+    static ModbusNormalResponse split(ModbusRequest request, ModbusNormalResponse response, ModbusRequest child){
+        ModbusNormalResponse result = new ModbusNormalResponse();
+        result.slaveAddress = response.slaveAddress;
+        result.function = response.function;
+        result.address = child.address;
+        result.quantity = child.quantity;
+        int offset = child.address - request.address;
+        if (response.coils != null)
+            result.coils = response.coils.get(offset, offset + child.quantity);
+        else
+            result.value = Arrays.copyOfRange(response.value, offset, offset + child.quantity);
+        return result;
+    }
+    
+    /**
+     * Devuelve los requerimientos originales al frente de la cola para su
+     * envío por separado (p.e. ante una excepción por direcciones inexistentes
+     * en los huecos del bloque fusionado).
+     * @param queue Cola de requerimientos
+     * @param request Requerimiento fusionado
+     */
+    static void uncoalesce(ModbusRequestQueue queue, ModbusRequest request){
+        for (ModbusRequest child : request.coalesced)
+            child.split = true;
+        for (int i = request.coalesced.length - 1 ; i >= 0 ; i--)
+            queue.addFirst(request.coalesced[i]);
+    }
+}
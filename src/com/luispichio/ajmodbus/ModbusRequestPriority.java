@@ -0,0 +1,56 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2018 Luis Pichio.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package com.luispichio.ajmodbus;
+
+/**
+ * Prioridad de un requerimiento en la cola del Maestro Modbus.
+ * Las escrituras (comandos) se envían antes que las lecturas a demanda y
+ * éstas antes que las lecturas cíclicas de los grupos de scan.
+ * 
+ * @author Luis Pichio | luispichio@gmail.com | https://sites.google.com/site/luispichio/ | https://github.com/luispichio
+ */
+public enum ModbusRequestPriority {
+    HIGH,
+    NORMAL,
+    LOW;
+    
+    /**
+     * Prioridad por defecto según la función.
+     * @param function Código de función
+     * @return HIGH para escrituras, NORMAL para lecturas
+     */
+    static ModbusRequestPriority of(int function){
+        switch (function){
+            case ModbusTypes.MODBUS_FUNCTION_WRITE_SINGLE_COIL:
+            case ModbusTypes.MODBUS_FUNCTION_WRITE_SINGLE_REGISTER:
+            case ModbusTypes.MODBUS_FUNCTION_WRITE_MULTIPLE_COILS:
+            case ModbusTypes.MODBUS_FUNCTION_WRITE_MULTIPLE_REGISTERS:
+                return HIGH;
+            default:
+                return NORMAL;
+        }
+    }
+}
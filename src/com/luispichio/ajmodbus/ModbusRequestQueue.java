@@ -0,0 +1,221 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2018 Luis Pichio.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package com.luispichio.ajmodbus;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.PriorityQueue;
+
+/**
+ * Cola de requerimientos del Maestro Modbus con un carril FIFO por prioridad.
+ * El frente de la cola es el primer requerimiento del carril no vacío de
+ * mayor prioridad. Los carriles son buffers circulares (ArrayDeque): encolado
+ * y desencolado en O(1).
+ * Los requerimientos a esclavos diferidos (espera entre reintentos) que
+ * llegan al frente se apartan en una cola por esclavo; los esclavos
+ * diferidos se ordenan por instante de liberación (montículo), de modo que
+ * ni la búsqueda del próximo requerimiento listo ni la del próximo instante
+ * de envío recorran la cola. Al liberarse un esclavo sus requerimientos
+ * vuelven al frente de sus carriles, en su orden original.
+ * 
+ * @author Luis Pichio | luispichio@gmail.com | https://sites.google.com/site/luispichio/ | https://github.com/luispichio
+ */
+class ModbusRequestQueue {
+    private final ArrayDeque<ModbusRequest>[] mLanes;
+    /**
+     * Instante [ns] a partir del cual puede enviarse a cada esclavo diferido.
+     */
+    private final long[] mNotBefore = new long[ModbusTypes.MODBUS_UNITS];
+    private final boolean[] mDeferred = new boolean[ModbusTypes.MODBUS_UNITS];
+    /**
+     * Requerimientos apartados de cada esclavo diferido (creadas a demanda).
+     */
+    private final ArrayDeque<ModbusRequest>[] mParked;
+    /**
+     * Esclavos diferidos por instante de liberación.
+     */
+    private final PriorityQueue<Integer> mDeferredSlaves = new PriorityQueue<>(
+            (a, b) -> Long.signum(mNotBefore[a] - mNotBefore[b]));
+    private int mParkedCount;
+    
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    ModbusRequestQueue(){
+        mLanes = new ArrayDeque[ModbusRequestPriority.values().length];
+        for (int i = 0 ; i < mLanes.length ; i++)
+            mLanes[i] = new ArrayDeque<>();
+        mParked = new ArrayDeque[ModbusTypes.MODBUS_UNITS];
+    }
+    
+    /**
+     * Carril de una prioridad.
+     */
+    ArrayDeque<ModbusRequest> lane(ModbusRequestPriority priority){
+        return mLanes[priority.ordinal()];
+    }
+    
+    private ArrayDeque<ModbusRequest> headLane(){
+        for (ArrayDeque<ModbusRequest> lane : mLanes)
+            if (!lane.isEmpty())
+                return lane;
+        return null;
+    }
+    
+    void add(ModbusRequest request){
+        lane(request.priority).add(request);
+    }
+    
+    /**
+     * Encola al frente de su carril (reintentos).
+     */
+    void addFirst(ModbusRequest request){
+        lane(request.priority).addFirst(request);
+    }
+    
+    /**
+     * @return Frente de la cola o null si está vacía
+     */
+    ModbusRequest peek(){
+        ArrayDeque<ModbusRequest> lane = headLane();
+        return lane == null ? null : lane.peekFirst();
+    }
+    
+    /**
+     * @return Frente de la cola (removido) o null si está vacía
+     */
+    ModbusRequest poll(){
+        ArrayDeque<ModbusRequest> lane = headLane();
+        return lane == null ? null : lane.pollFirst();
+    }
+    
+    /**
+     * Difiere los envíos a un esclavo (sólo extiende una espera en curso).
+     * @param slaveAddress Dirección de esclavo
+     * @param until Instante [ns] a partir del cual puede enviarse
+     */
+    void defer(int slaveAddress, long until){
+        if (slaveAddress <= 0 || slaveAddress >= mNotBefore.length)
+            return;
+        if (mDeferred[slaveAddress]){
+            if (until - mNotBefore[slaveAddress] <= 0)
+                return;
+            mDeferredSlaves.remove(slaveAddress);
+        }
+        mNotBefore[slaveAddress] = until;
+        mDeferred[slaveAddress] = true;
+        mDeferredSlaves.add(slaveAddress);
+    }
+    
+    /**
+     * @return true si el esclavo del requerimiento no está en espera de
+     * reintento
+     */
+    private boolean isReady(ModbusRequest request, long now){
+        int slaveAddress = request.slaveAddress;
+        return slaveAddress <= 0 || slaveAddress >= mNotBefore.length || !mDeferred[slaveAddress] || mNotBefore[slaveAddress] - now <= 0;
+    }
+    
+    /**
+     * Devuelve al frente de sus carriles los requerimientos de los esclavos
+     * cuya espera venció.
+     * @param now Instante actual [ns]
+     */
+    private void release(long now){
+        Integer slaveAddress;
+        while ((slaveAddress = mDeferredSlaves.peek()) != null && mNotBefore[slaveAddress] - now <= 0){
+            mDeferredSlaves.poll();
+            mDeferred[slaveAddress] = false;
+            ArrayDeque<ModbusRequest> parked = mParked[slaveAddress];
+            if (parked == null)
+                continue;
+            mParkedCount -= parked.size();
+            for (Iterator<ModbusRequest> it = parked.descendingIterator() ; it.hasNext() ; ){
+                addFirst(it.next());
+                it.remove();
+            }
+        }
+    }
+    
+    /**
+     * Frente de la cola listo para enviar: libera los esclavos cuya espera
+     * venció y aparta los requerimientos de esclavos diferidos que encuentra
+     * al frente (cada requerimiento se aparta a lo sumo una vez por espera).
+     * @param now Instante actual [ns]
+     * @return Requerimiento (no removido) o null si no hay requerimientos
+     * listos
+     */
+    ModbusRequest peekReady(long now){
+        release(now);
+        ModbusRequest request;
+        while ((request = peek()) != null && !isReady(request, now)){
+            ArrayDeque<ModbusRequest> parked = mParked[request.slaveAddress];
+            if (parked == null)
+                parked = mParked[request.slaveAddress] = new ArrayDeque<>();
+            parked.add(poll());
+            mParkedCount++;
+        }
+        return request;
+    }
+    
+    /**
+     * @return Instante [ns] en el que se libera el próximo esclavo diferido
+     * (a lo sumo anticipado respecto del primero con requerimientos
+     * apartados) o Long.MAX_VALUE si no hay requerimientos apartados
+     */
+    long nextRelease(){
+        Integer slaveAddress = mDeferredSlaves.peek();
+        return mParkedCount == 0 || slaveAddress == null ? Long.MAX_VALUE : mNotBefore[slaveAddress];
+    }
+    
+    /**
+     * Remueve el requerimiento más antiguo de menor prioridad, no superior a
+     * la indicada.
+     * @param priority Prioridad máxima del requerimiento a remover
+     * @return Requerimiento removido o null
+     */
+    ModbusRequest removeOldest(ModbusRequestPriority priority){
+        for (int i = mLanes.length - 1 ; i >= priority.ordinal() ; i--)
+            if (!mLanes[i].isEmpty())
+                return mLanes[i].pollFirst();
+        return null;
+    }
+    
+    /**
+     * @return true si no hay requerimientos (incluidos los apartados)
+     */
+    boolean isEmpty(){
+        return mParkedCount == 0 && headLane() == null;
+    }
+    
+    /**
+     * @return Cantidad de requerimientos (incluidos los apartados)
+     */
+    int size(){
+        int size = mParkedCount;
+        for (ArrayDeque<ModbusRequest> lane : mLanes)
+            size += lane.size();
+        return size;
+    }
+}
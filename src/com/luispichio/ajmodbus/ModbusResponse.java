@@ -35,17 +35,31 @@ public class ModbusResponse {
     public int function;
     
     public static ModbusNormalResponse readCoils(int slaveAddress, int address, int quantity, int value[]){
+        return readCoils(slaveAddress, address, ModbusCoils.valueOf(value, quantity));
+    }
+    
+    public static ModbusNormalResponse readCoils(int slaveAddress, int address, int quantity, boolean value[]){
+        return readCoils(slaveAddress, address, ModbusCoils.valueOf(value, quantity));
+    }
+    
+    public static ModbusNormalResponse readCoils(int slaveAddress, int address, ModbusCoils coils){
         ModbusNormalResponse response = new ModbusNormalResponse();
         response.function = ModbusTypes.MODBUS_FUNCTION_READ_COILS;
         response.slaveAddress = slaveAddress;
         response.address = address;
-        response.quantity = quantity;
-        response.value = Arrays.copyOf(value, quantity);
+        response.quantity = coils.size();
+        response.coils = coils;
         return response;
     }
     
-    public static ModbusNormalResponse readCoils(int slaveAddress, int address, int quantity, boolean value[]){
-        return readCoils(slaveAddress, address, quantity, ModbusUtils.boolean2int(value));
+    public static ModbusNormalResponse readDiscreteInputs(int slaveAddress, int address, int quantity, boolean value[]){
+        return readDiscreteInputs(slaveAddress, address, ModbusCoils.valueOf(value, quantity));
+    }
+    
+    public static ModbusNormalResponse readDiscreteInputs(int slaveAddress, int address, ModbusCoils inputs){
+        ModbusNormalResponse response = readCoils(slaveAddress, address, inputs);
+        response.function = ModbusTypes.MODBUS_FUNCTION_READ_DISCRETE_INPUTS;
+        return response;
     }
     
     public static ModbusNormalResponse readHoldingRegisters(int slaveAddress, int address, int quantity, int value[]){
@@ -0,0 +1,171 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2018 Luis Pichio.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package com.luispichio.ajmodbus;
+
+/**
+ * Vista (flyweight) de una respuesta normal de lectura sobre el buffer de
+ * recepción: los valores se leen de la trama a demanda, sin copias.
+ * Es válida sólo durante el evento onResponseView; para conservar los datos
+ * utilizar copy().
+ * Funciones soportadas: 0x01 y 0x02 (coils / entradas discretas), 0x03 y
+ * 0x04 (registros).
+ * 
+ * @author Luis Pichio | luispichio@gmail.com | https://sites.google.com/site/luispichio/ | https://github.com/luispichio
+ */
+public final class ModbusResponseView {
+    private byte[] mFrame;
+    private int mData;
+    private int mFirst;
+    private int mSlaveAddress;
+    private int mFunction;
+    private int mAddress;
+    private int mQuantity;
+    
+    /**
+     * Posiciona la vista sobre la respuesta a un requerimiento.
+     * @param adu Buffer de recepción
+     * @param offset Inicio de ADU (dirección de esclavo)
+     * @param request Requerimiento
+     * @return true si es una respuesta normal de lectura consistente con el
+     * requerimiento
+     */
+    boolean wrap(byte[] adu, int offset, ModbusRequest request){
+        int function = adu[offset + 1] & 0xFF;
+        if (function != request.function)
+            return false;
+        int byteCount = adu[offset + 2] & 0xFF;
+        switch (function){
+            case ModbusTypes.MODBUS_FUNCTION_READ_COILS:
+            case ModbusTypes.MODBUS_FUNCTION_READ_DISCRETE_INPUTS:
+                if (byteCount * 8 < request.quantity)
+                    return false;
+            break;
+            case ModbusTypes.MODBUS_FUNCTION_READ_HOLDING_REGISTERS:
+            case ModbusTypes.MODBUS_FUNCTION_READ_INPUT_REGISTERS:
+                if (byteCount != 2 * request.quantity)
+                    return false;
+            break;
+            default:
+                return false;
+        }
+        mFrame = adu;
+        mData = offset + 3;
+        mSlaveAddress = adu[offset] & 0xFF;
+        mFunction = function;
+        slice(request, request.address);
+        return true;
+    }
+    
+    /**
+     * Restringe la vista a un requerimiento contenido en el leído (respuestas
+     * fusionadas).
+     * @param request Requerimiento contenido
+     * @param address Dirección del primer valor de la trama
+     */
+    void slice(ModbusRequest request, int address){
+        mFirst = request.address - address;
+        mAddress = request.address;
+        mQuantity = request.quantity;
+    }
+    
+    public int getSlaveAddress(){
+        return mSlaveAddress;
+    }
+    
+    public int getFunction(){
+        return mFunction;
+    }
+    
+    public int getAddress(){
+        return mAddress;
+    }
+    
+    public int getQuantity(){
+        return mQuantity;
+    }
+    
+    /**
+     * @param index Índice (0 .. quantity - 1)
+     * @return Estado del coil / entrada discreta (funciones 0x01 y 0x02)
+     */
+    public boolean getCoil(int index){
+        int bit = mFirst + index;
+        return (mFrame[mData + (bit >> 3)] & (1 << (bit & 7))) != 0;
+    }
+    
+    /**
+     * @param index Índice (0 .. quantity - 1)
+     * @return Valor del registro (0 .. 65535)
+     */
+    public int getRegister(int index){
+        return ModbusUtils.getWord(mFrame, mData + 2 * (mFirst + index));
+    }
+    
+    /**
+     * Entero de 32 bits en dos registros (palabra baja primero, como
+     * ModbusUtils.getInt).
+     * @param index Índice del primer registro
+     * @return Valor
+     */
+    public int getInt32(int index){
+        return (getRegister(index + 1) << 16) | getRegister(index);
+    }
+    
+    public long getUInt32(int index){
+        return getInt32(index) & 0xFFFFFFFFL;
+    }
+    
+    /**
+     * Flotante IEEE 754 en dos registros (palabra baja primero, como
+     * ModbusUtils.getFloat).
+     * @param index Índice del primer registro
+     * @return Valor
+     */
+    public float getFloat(int index){
+        return Float.intBitsToFloat(getInt32(index));
+    }
+    
+    /**
+     * @return Copia de la respuesta, independiente del buffer de recepción
+     */
+    public ModbusNormalResponse copy(){
+        ModbusNormalResponse response = new ModbusNormalResponse();
+        response.slaveAddress = mSlaveAddress;
+        response.function = mFunction;
+        response.address = mAddress;
+        response.quantity = mQuantity;
+        if (mFunction == ModbusTypes.MODBUS_FUNCTION_READ_COILS || mFunction == ModbusTypes.MODBUS_FUNCTION_READ_DISCRETE_INPUTS){
+            response.coils = new ModbusCoils(mQuantity);
+            for (int i = 0 ; i < mQuantity ; i++)
+                response.coils.set(i, getCoil(i));
+        } else {
+            response.value = new int[mQuantity];
+            for (int i = 0 ; i < mQuantity ; i++)
+                response.value[i] = getRegister(i);
+        }
+        return response;
+    }
+}
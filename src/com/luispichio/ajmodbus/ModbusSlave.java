@@ -27,6 +27,7 @@ package com.luispichio.ajmodbus;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -39,12 +40,19 @@ public class ModbusSlave {
     private ModbusSlaveListener mListener;
     private int mFrameTimeOut;
     private int mResponseDelay;
+    private ModbusRTUTiming mTiming;
     
     private final InputStream mInputStream;
     private final OutputStream mOutputStream;
 
     private final byte[] mRXBuffer = new byte[8192];
     private int mRXBufferSize;
+    private final byte[] mTXBuffer = new byte[512];
+    private final ModbusRTUFramer mFramer = new ModbusRTUFramer.Requests();
+    private int mRequestOffset = -1;
+    /**
+     * Instantes [ns] de última recepción y de fin de última transmisión.
+     */
     private long mLastRX;
     private long mLastTX;
     
@@ -54,8 +62,8 @@ public class ModbusSlave {
         mState = ModbusSlaveState.STATE_IDLE;
         mListener = listener;
         mRXBufferSize = 0;
-        mLastRX = System.currentTimeMillis();
-        mLastTX = System.currentTimeMillis();
+        mLastRX = System.nanoTime();
+        mLastTX = System.nanoTime();
         setup(100, 10);
     }
     
@@ -68,12 +76,28 @@ public class ModbusSlave {
         this.mFrameTimeOut = frameTimeOut;
     }
     
+    /**
+     * Tiempos RTU derivados de la velocidad de la línea: el fin de trama pasa
+     * a ser t3.5 (en lugar de frameTimeOut).
+     * @param timing Tiempos RTU o null (frameTimeOut)
+     */
+    public void setup(ModbusRTUTiming timing){
+        this.mTiming = timing;
+    }
+    
     private long timeFromLastRX(){
-        return System.currentTimeMillis() - mLastRX;
+        return System.nanoTime() - mLastRX;
     }
     
     private long timeFromLastTX(){
-        return System.currentTimeMillis() - mLastTX;
+        return System.nanoTime() - mLastTX;
+    }
+    
+    /**
+     * @return Silencio de fin de trama [ns]
+     */
+    private long frameGap(){
+        return mTiming != null ? mTiming.getT35Nanos() : TimeUnit.MILLISECONDS.toNanos(mFrameTimeOut);
     }
     
     private long timeFromLastRXTX() {
@@ -82,99 +106,86 @@ public class ModbusSlave {
     
     private void purgeRX(){
         mRXBufferSize = 0;
+        mFramer.reset();
     }
    
     private void sendResponse(ModbusResponse response){
-        byte[] parse = null;
-        if (response == null)
-            return;
-        if (response.getClass().equals(ModbusNormalResponse.class)){
-            ModbusNormalResponse normalResponse = (ModbusNormalResponse) response;
-            switch (normalResponse.function){
-                case ModbusTypes.MODBUS_FUNCTION_READ_COILS:
-                    parse = ModbusSlaveParser.readCoils(normalResponse.slaveAddress, normalResponse.address, normalResponse.quantity, normalResponse.value);
-                break;
-                case ModbusTypes.MODBUS_FUNCTION_READ_HOLDING_REGISTERS:
-                    parse = ModbusSlaveParser.readHoldingRegisters(normalResponse.slaveAddress, normalResponse.address, normalResponse.quantity, normalResponse.value);
-                break;
-                case ModbusTypes.MODBUS_FUNCTION_READ_INPUT_REGISTERS:
-                    parse = ModbusSlaveParser.readInputRegisters(normalResponse.slaveAddress, normalResponse.address, normalResponse.quantity, normalResponse.value);
-                break;
-                case ModbusTypes.MODBUS_FUNCTION_WRITE_SINGLE_COIL:
-                    parse = ModbusSlaveParser.writeSingleCoil(normalResponse.slaveAddress, normalResponse.address, normalResponse.value[0]);
-                break;
-                case ModbusTypes.MODBUS_FUNCTION_WRITE_SINGLE_REGISTER:
-                    parse = ModbusSlaveParser.writeSingleRegister(normalResponse.slaveAddress, normalResponse.address, normalResponse.value[0]);
-                break;
-                case ModbusTypes.MODBUS_FUNCTION_WRITE_MULTIPLE_COILS:
-                    parse = ModbusSlaveParser.writeMultipleCoils(normalResponse.slaveAddress, normalResponse.address, normalResponse.quantity);
-                break;
-                case ModbusTypes.MODBUS_FUNCTION_WRITE_MULTIPLE_REGISTERS:
-                    parse = ModbusSlaveParser.writeMultipleRegisters(normalResponse.slaveAddress, normalResponse.address, normalResponse.quantity);
-                break;
-            }
-        } else {
-            ModbusExceptionResponse exceptionResponse = (ModbusExceptionResponse) response;
-            parse = ModbusSlaveParser.exception(exceptionResponse.slaveAddress, exceptionResponse.function, exceptionResponse.code);
-        }
-        if (parse != null){
-            mListener.onTX(parse);
+        transmit(ModbusSlaveParser.response(mTXBuffer, 0, response));
+    }
+    
+    private void transmit(int size){
+        if (size > 0){
+            mListener.onTX(mTXBuffer, 0, size);
             try {
-                if (mOutputStream != null)
-                    mOutputStream.write(parse);
+                if (mOutputStream != null){
+                    mOutputStream.write(mTXBuffer, 0, size);
+                    mOutputStream.flush();
+                }
             } catch (IOException ex) {
                 Logger.getLogger(ModbusSlave.class.getName()).log(Level.SEVERE, null, ex);
             }
-            mLastTX = System.currentTimeMillis();
+            mLastTX = System.nanoTime() + (mTiming != null ? mTiming.getFrameNanos(size) : 0);
             mState = ModbusSlaveState.STATE_IDLE;
         }
     }
     
-    private void processRequest(ModbusRequest request){
+    private void processRequest(int offset){
+        int size = mListener.onRequest(mRXBuffer, offset, mTXBuffer, 0);
+        if (size > 0)
+            transmit(ModbusMasterParser.putCRC(mTXBuffer, 0, size));
+        else if (size == 0)
+            sendResponse(dispatchRequest(mListener, ModbusSlaveParser.takeRequestFromADU(mRXBuffer, offset)));
+    }
+    
+    static ModbusResponse dispatchRequest(ModbusSlaveListener listener, ModbusRequest request){
         switch (request.function){
             case ModbusTypes.MODBUS_FUNCTION_READ_COILS:
-                sendResponse(mListener.onReadCoils(request.slaveAddress, request.function, request.address, request.quantity));
-            break;
+                return listener.onReadCoils(request.slaveAddress, request.function, request.address, request.quantity);
+            case ModbusTypes.MODBUS_FUNCTION_READ_DISCRETE_INPUTS:
+                return listener.onReadDiscreteInputs(request.slaveAddress, request.function, request.address, request.quantity);
             case ModbusTypes.MODBUS_FUNCTION_READ_HOLDING_REGISTERS:
-                sendResponse(mListener.onReadHoldingRegisters(request.slaveAddress, request.function, request.address, request.quantity));
-            break;
+                return listener.onReadHoldingRegisters(request.slaveAddress, request.function, request.address, request.quantity);
             case ModbusTypes.MODBUS_FUNCTION_READ_INPUT_REGISTERS:
-                sendResponse(mListener.onReadInputRegisters(request.slaveAddress, request.function, request.address, request.quantity));
-            break;
+                return listener.onReadInputRegisters(request.slaveAddress, request.function, request.address, request.quantity);
             case ModbusTypes.MODBUS_FUNCTION_WRITE_SINGLE_COIL:
-                sendResponse(mListener.onWriteSingleCoil(request.slaveAddress, request.function, request.address, request.value[0] != 0));
-            break;
+                return listener.onWriteSingleCoil(request.slaveAddress, request.function, request.address, request.value[0] != 0);
             case ModbusTypes.MODBUS_FUNCTION_WRITE_SINGLE_REGISTER:
-                sendResponse(mListener.onWriteSingleRegister(request.slaveAddress, request.function, request.address, request.value[0]));
-            break;
+                return listener.onWriteSingleRegister(request.slaveAddress, request.function, request.address, request.value[0]);
             case ModbusTypes.MODBUS_FUNCTION_WRITE_MULTIPLE_COILS:
-                sendResponse(mListener.onWriteMultipleCoils(request.slaveAddress, request.function, request.address, request.quantity, ModbusUtils.int2boolean(request.value)));
-            break;            
+                return listener.onWriteMultipleCoils(request.slaveAddress, request.function, request.address, request.quantity, request.coils);
             case ModbusTypes.MODBUS_FUNCTION_WRITE_MULTIPLE_REGISTERS:
-                sendResponse(mListener.onWriteMultipleRegisters(request.slaveAddress, request.function, request.address, request.quantity, request.value));
-            break;
+                return listener.onWriteMultipleRegisters(request.slaveAddress, request.function, request.address, request.quantity, request.value);
             default:
-                sendResponse(ModbusResponse.exception(request.slaveAddress, request.function, ModbusExceptionResponse.ILLEGAL_FUNCTION));
+                return ModbusResponse.exception(request.slaveAddress, request.function, ModbusExceptionResponse.ILLEGAL_FUNCTION);
         }
     }
     
     public void onRX(byte[] bytes){
-        mLastRX = System.currentTimeMillis();
-        if (mRXBufferSize + bytes.length < mRXBuffer.length){
-            System.arraycopy(bytes, 0, mRXBuffer, mRXBufferSize, bytes.length);
-            mRXBufferSize += bytes.length;
+        onRX(bytes, 0, bytes.length);
+    }    
+
+    public void onRX(byte[] bytes, int offset, int length){
+        mLastRX = System.nanoTime();
+        if (mRXBufferSize + length < mRXBuffer.length){
+            System.arraycopy(bytes, offset, mRXBuffer, mRXBufferSize, length);
+            mRXBufferSize += length;
         } else
             purgeRX();
-        mListener.onRX(bytes);
+        mListener.onRX(bytes, offset, length);
     }    
 
     private void streamRX(){
         try {
             int available;
             if ((available = mInputStream.available()) > 0){
-                byte[] frame = new byte[available];
-                mInputStream.read(frame);
-                onRX(frame);
+                if (mRXBufferSize + available >= mRXBuffer.length)
+                    purgeRX();
+                int count = mInputStream.read(mRXBuffer, mRXBufferSize, Math.min(available, mRXBuffer.length - mRXBufferSize - 1));
+                if (count > 0){
+                    mLastRX = System.nanoTime();
+                    mListener.onRX(mRXBuffer, mRXBufferSize, count);
+                    mRXBufferSize += count;
+                }
             }
         } catch (IOException ex) {
             Logger.getLogger(ModbusSlave.class.getName()).log(Level.SEVERE, null, ex);
@@ -188,19 +199,34 @@ public class ModbusSlave {
         switch (mState){
             case STATE_IDLE:
                 if (mRXBufferSize > 0){
-                    if (timeFromLastRX() >= mFrameTimeOut)
+                    //el requerimiento se reconoce apenas está completo, sin esperar el silencio de fin de trama
+                    boolean silence = timeFromLastRX() >= frameGap();
+                    mRequestOffset = mFramer.scan(mRXBuffer, mRXBufferSize, false);
+                    if (mRequestOffset == -1 && silence)
+                        mRequestOffset = mFramer.scan(mRXBuffer, mRXBufferSize, true);
+                    if (mRequestOffset != -1 || silence)
                         mState = ModbusSlaveState.STATE_REQUEST_RECEIVED;
                 }
+                //el requerimiento completo se procesa en la misma pasada
+                if (mState == ModbusSlaveState.STATE_REQUEST_RECEIVED)
+                    requestReceived();
             break;
             case STATE_REQUEST_RECEIVED:
-                int offset = ModbusSlaveParser.findValidADU(mRXBuffer, mRXBufferSize);
-                mState = ModbusSlaveState.STATE_IDLE;
-                if (offset != -1)
-                    processRequest(ModbusSlaveParser.takeRequestFromADU(mRXBuffer, offset));
-                purgeRX();
+                requestReceived();
             break;
         }
     }
+    
+    /**
+     * Procesa el requerimiento recibido (o descarta la trama inválida) y
+     * vuelve a STATE_IDLE.
+     */
+    private void requestReceived(){
+        mState = ModbusSlaveState.STATE_IDLE;
+        if (mRequestOffset != -1)
+            processRequest(mRequestOffset);
+        purgeRX();
+    }
 }
 
 enum ModbusSlaveState {
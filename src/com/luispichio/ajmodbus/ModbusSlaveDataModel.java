@@ -0,0 +1,463 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2018 Luis Pichio.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package com.luispichio.ajmodbus;
+
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * Modelo de datos en memoria de un Esclavo Modbus.
+ * Mantiene las cuatro tablas Modbus en bancos contiguos: coils y entradas
+ * discretas como bits empaquetados (long[]) y registros holding e input como
+ * short[]. Utilizado como ModbusSlaveListener (ModbusSlave, ModbusTCPSlave)
+ * las lecturas se serializan directamente del banco al buffer de transmisión
+ * y las escrituras se aplican en el lugar, sin objetos intermedios.
+ * 
+ * La aplicación puede modificar los bancos concurrentemente: las lecturas del
+ * Maestro son optimistas (StampedLock) y se repiten con lock sólo si hubo una
+ * escritura simultánea.
+ * 
+ * @author Luis Pichio | luispichio@gmail.com | https://sites.google.com/site/luispichio/ | https://github.com/luispichio
+ */
+public class ModbusSlaveDataModel implements ModbusSlaveListener {
+    private static final int MAX_READ_BITS = 2000;
+    private static final int MAX_READ_REGISTERS = 125;
+    private static final int MAX_WRITE_BITS = 1968;
+    private static final int MAX_WRITE_REGISTERS = 123;
+    
+    private final StampedLock mLock = new StampedLock();
+    private final long[] mCoils;
+    private final long[] mDiscreteInputs;
+    private final short[] mHoldingRegisters;
+    private final short[] mInputRegisters;
+    private final int mCoilCount;
+    private final int mDiscreteInputCount;
+    
+    /**
+     * Constructor de la clase
+     * @param coils Cantidad de coils
+     * @param discreteInputs Cantidad de entradas discretas
+     * @param holdingRegisters Cantidad de registros holding
+     * @param inputRegisters Cantidad de registros input
+     */
+    public ModbusSlaveDataModel(int coils, int discreteInputs, int holdingRegisters, int inputRegisters){
+        mCoilCount = coils;
+        mDiscreteInputCount = discreteInputs;
+        mCoils = new long[(coils + 63) >> 6];
+        mDiscreteInputs = new long[(discreteInputs + 63) >> 6];
+        mHoldingRegisters = new short[holdingRegisters];
+        mInputRegisters = new short[inputRegisters];
+    }
+    
+    /**
+     * Constructor de la clase (mapa completo de 65536 valores por tabla)
+     */
+    public ModbusSlaveDataModel(){
+        this(0x10000, 0x10000, 0x10000, 0x10000);
+    }
+    
+    private static boolean getBit(long[] bank, int index){
+        return (bank[index >> 6] & (1L << index)) != 0;
+    }
+    
+    private static void setBit(long[] bank, int index, boolean value){
+        if (value)
+            bank[index >> 6] |= 1L << index;
+        else
+            bank[index >> 6] &= ~(1L << index);
+    }
+    
+    public boolean getCoil(int address){
+        long stamp = mLock.readLock();
+        try {
+            return getBit(mCoils, address);
+        } finally {
+            mLock.unlockRead(stamp);
+        }
+    }
+    
+    public void setCoil(int address, boolean value){
+        long stamp = mLock.writeLock();
+        try {
+            setBit(mCoils, address, value);
+        } finally {
+            mLock.unlockWrite(stamp);
+        }
+    }
+    
+    public boolean getDiscreteInput(int address){
+        long stamp = mLock.readLock();
+        try {
+            return getBit(mDiscreteInputs, address);
+        } finally {
+            mLock.unlockRead(stamp);
+        }
+    }
+    
+    public void setDiscreteInput(int address, boolean value){
+        long stamp = mLock.writeLock();
+        try {
+            setBit(mDiscreteInputs, address, value);
+        } finally {
+            mLock.unlockWrite(stamp);
+        }
+    }
+    
+    public int getHoldingRegister(int address){
+        long stamp = mLock.readLock();
+        try {
+            return mHoldingRegisters[address] & 0xFFFF;
+        } finally {
+            mLock.unlockRead(stamp);
+        }
+    }
+    
+    public void setHoldingRegister(int address, int value){
+        long stamp = mLock.writeLock();
+        try {
+            mHoldingRegisters[address] = (short) value;
+        } finally {
+            mLock.unlockWrite(stamp);
+        }
+    }
+    
+    /**
+     * Escritura atómica de un bloque de registros holding.
+     * @param address Dirección del primer registro
+     * @param values Valores
+     */
+    public void setHoldingRegisters(int address, int[] values){
+        long stamp = mLock.writeLock();
+        try {
+            for (int i = 0 ; i < values.length ; i++)
+                mHoldingRegisters[address + i] = (short) values[i];
+        } finally {
+            mLock.unlockWrite(stamp);
+        }
+    }
+    
+    public int getInputRegister(int address){
+        long stamp = mLock.readLock();
+        try {
+            return mInputRegisters[address] & 0xFFFF;
+        } finally {
+            mLock.unlockRead(stamp);
+        }
+    }
+    
+    public void setInputRegister(int address, int value){
+        long stamp = mLock.writeLock();
+        try {
+            mInputRegisters[address] = (short) value;
+        } finally {
+            mLock.unlockWrite(stamp);
+        }
+    }
+    
+    /**
+     * Escritura atómica de un bloque de registros input.
+     * @param address Dirección del primer registro
+     * @param values Valores
+     */
+    public void setInputRegisters(int address, int[] values){
+        long stamp = mLock.writeLock();
+        try {
+            for (int i = 0 ; i < values.length ; i++)
+                mInputRegisters[address + i] = (short) values[i];
+        } finally {
+            mLock.unlockWrite(stamp);
+        }
+    }
+    
+    private static int exception(byte[] response, int offset, int slaveAddress, int function, int code){
+        response[offset] = (byte) slaveAddress;
+        response[offset + 1] = (byte) (0x80 | function);
+        response[offset + 2] = (byte) code;
+        return 3;
+    }
+    
+    private static int putBits(long[] bank, int address, int quantity, byte[] response, int offset){
+        int byteCount = (quantity + 7) >> 3;
+        response[offset] = (byte) byteCount;
+        for (int i = 0 ; i < byteCount ; i++){
+            int bits = 0;
+            for (int j = 0 ; j < 8 && 8 * i + j < quantity ; j++)
+                if (getBit(bank, address + 8 * i + j))
+                    bits |= 1 << j;
+            response[offset + 1 + i] = (byte) bits;
+        }
+        return 1 + byteCount;
+    }
+    
+    private static int putRegisters(short[] bank, int address, int quantity, byte[] response, int offset){
+        response[offset] = (byte) (2 * quantity);
+        for (int i = 0 ; i < quantity ; i++)
+            ModbusUtils.putWord(response, bank[address + i] & 0xFFFF, offset + 1 + 2 * i);
+        return 1 + 2 * quantity;
+    }
+    
+    private int readBits(long[] bank, int address, int quantity, byte[] response, int offset){
+        long stamp = mLock.tryOptimisticRead();
+        int size = putBits(bank, address, quantity, response, offset);
+        if (mLock.validate(stamp))
+            return size;
+        stamp = mLock.readLock();
+        try {
+            return putBits(bank, address, quantity, response, offset);
+        } finally {
+            mLock.unlockRead(stamp);
+        }
+    }
+    
+    private int readRegisters(short[] bank, int address, int quantity, byte[] response, int offset){
+        long stamp = mLock.tryOptimisticRead();
+        int size = putRegisters(bank, address, quantity, response, offset);
+        if (mLock.validate(stamp))
+            return size;
+        stamp = mLock.readLock();
+        try {
+            return putRegisters(bank, address, quantity, response, offset);
+        } finally {
+            mLock.unlockRead(stamp);
+        }
+    }
+
+    @Override
+    public int onRequest(byte[] adu, int offset, byte[] response, int responseOffset){
+        int slaveAddress = adu[offset] & 0xFF;
+        int function = adu[offset + 1] & 0xFF;
+        int address = ModbusUtils.getWord(adu, offset + 2);
+        int quantity = ModbusUtils.getWord(adu, offset + 4);
+        int end = address + quantity;
+        response[responseOffset] = (byte) slaveAddress;
+        response[responseOffset + 1] = (byte) function;
+        long stamp;
+        switch (function){
+            case ModbusTypes.MODBUS_FUNCTION_READ_COILS:
+            case ModbusTypes.MODBUS_FUNCTION_READ_DISCRETE_INPUTS:
+                if (quantity < 1 || quantity > MAX_READ_BITS)
+                    return exception(response, responseOffset, slaveAddress, function, ModbusExceptionResponse.ILLEGAL_DATA_VALUE);
+                if (end > (function == ModbusTypes.MODBUS_FUNCTION_READ_COILS ? mCoilCount : mDiscreteInputCount))
+                    return exception(response, responseOffset, slaveAddress, function, ModbusExceptionResponse.ILLEGAL_DATA_ADDRESS);
+                return 2 + readBits(function == ModbusTypes.MODBUS_FUNCTION_READ_COILS ? mCoils : mDiscreteInputs, address, quantity, response, responseOffset + 2);
+            case ModbusTypes.MODBUS_FUNCTION_READ_HOLDING_REGISTERS:
+            case ModbusTypes.MODBUS_FUNCTION_READ_INPUT_REGISTERS:
+                short[] bank = function == ModbusTypes.MODBUS_FUNCTION_READ_HOLDING_REGISTERS ? mHoldingRegisters : mInputRegisters;
+                if (quantity < 1 || quantity > MAX_READ_REGISTERS)
+                    return exception(response, responseOffset, slaveAddress, function, ModbusExceptionResponse.ILLEGAL_DATA_VALUE);
+                if (end > bank.length)
+                    return exception(response, responseOffset, slaveAddress, function, ModbusExceptionResponse.ILLEGAL_DATA_ADDRESS);
+                return 2 + readRegisters(bank, address, quantity, response, responseOffset + 2);
+            case ModbusTypes.MODBUS_FUNCTION_WRITE_SINGLE_COIL:
+                //quantity: valor (0xFF00 / 0x0000)
+                if (quantity != 0xFF00 && quantity != 0x0000)
+                    return exception(response, responseOffset, slaveAddress, function, ModbusExceptionResponse.ILLEGAL_DATA_VALUE);
+                if (address >= mCoilCount)
+                    return exception(response, responseOffset, slaveAddress, function, ModbusExceptionResponse.ILLEGAL_DATA_ADDRESS);
+                setCoil(address, quantity != 0);
+                System.arraycopy(adu, offset + 2, response, responseOffset + 2, 4);
+                return 6;
+            case ModbusTypes.MODBUS_FUNCTION_WRITE_SINGLE_REGISTER:
+                if (address >= mHoldingRegisters.length)
+                    return exception(response, responseOffset, slaveAddress, function, ModbusExceptionResponse.ILLEGAL_DATA_ADDRESS);
+                setHoldingRegister(address, quantity);
+                System.arraycopy(adu, offset + 2, response, responseOffset + 2, 4);
+                return 6;
+            case ModbusTypes.MODBUS_FUNCTION_WRITE_MULTIPLE_COILS:
+                if (quantity < 1 || quantity > MAX_WRITE_BITS)
+                    return exception(response, responseOffset, slaveAddress, function, ModbusExceptionResponse.ILLEGAL_DATA_VALUE);
+                if (end > mCoilCount)
+                    return exception(response, responseOffset, slaveAddress, function, ModbusExceptionResponse.ILLEGAL_DATA_ADDRESS);
+                stamp = mLock.writeLock();
+                try {
+                    for (int i = 0 ; i < quantity ; i++)
+                        setBit(mCoils, address + i, (adu[offset + 7 + (i >> 3)] & (1 << (i & 7))) != 0);
+                } finally {
+                    mLock.unlockWrite(stamp);
+                }
+                System.arraycopy(adu, offset + 2, response, responseOffset + 2, 4);
+                return 6;
+            case ModbusTypes.MODBUS_FUNCTION_WRITE_MULTIPLE_REGISTERS:
+                if (quantity < 1 || quantity > MAX_WRITE_REGISTERS)
+                    return exception(response, responseOffset, slaveAddress, function, ModbusExceptionResponse.ILLEGAL_DATA_VALUE);
+                if (end > mHoldingRegisters.length)
+                    return exception(response, responseOffset, slaveAddress, function, ModbusExceptionResponse.ILLEGAL_DATA_ADDRESS);
+                stamp = mLock.writeLock();
+                try {
+                    for (int i = 0 ; i < quantity ; i++)
+                        mHoldingRegisters[address + i] = (short) ModbusUtils.getWord(adu, offset + 7 + 2 * i);
+                } finally {
+                    mLock.unlockWrite(stamp);
+                }
+                System.arraycopy(adu, offset + 2, response, responseOffset + 2, 4);
+                return 6;
+        }
+        return exception(response, responseOffset, slaveAddress, function, ModbusExceptionResponse.ILLEGAL_FUNCTION);
+    }
+    
+    /*
+     * Eventos de requerimiento (utilizados sólo si el Esclavo no procesa el
+     * requerimiento en forma directa).
+     */
+    
+    @Override
+    public ModbusResponse onRequest(ModbusRequest request){
+        return null;
+    }
+    
+    private ModbusCoils bits(long[] bank, int count, int address, int quantity){
+        if (address + quantity > count)
+            return null;
+        ModbusCoils result = new ModbusCoils(quantity);
+        long stamp = mLock.readLock();
+        try {
+            for (int i = 0 ; i < quantity ; i++)
+                result.set(i, getBit(bank, address + i));
+        } finally {
+            mLock.unlockRead(stamp);
+        }
+        return result;
+    }
+    
+    private int[] registers(short[] bank, int address, int quantity){
+        if (address + quantity > bank.length)
+            return null;
+        int[] result = new int[quantity];
+        long stamp = mLock.readLock();
+        try {
+            for (int i = 0 ; i < quantity ; i++)
+                result[i] = bank[address + i] & 0xFFFF;
+        } finally {
+            mLock.unlockRead(stamp);
+        }
+        return result;
+    }
+    
+    @Override
+    public ModbusResponse onReadCoils(int slaveAddress, int function, int address, int quantity){
+        ModbusCoils value = bits(mCoils, mCoilCount, address, quantity);
+        if (value == null)
+            return ModbusResponse.exception(slaveAddress, function, ModbusExceptionResponse.ILLEGAL_DATA_ADDRESS);
+        return ModbusResponse.readCoils(slaveAddress, address, value);
+    }
+
+    @Override
+    public ModbusResponse onReadDiscreteInputs(int slaveAddress, int function, int address, int quantity){
+        ModbusCoils value = bits(mDiscreteInputs, mDiscreteInputCount, address, quantity);
+        if (value == null)
+            return ModbusResponse.exception(slaveAddress, function, ModbusExceptionResponse.ILLEGAL_DATA_ADDRESS);
+        return ModbusResponse.readDiscreteInputs(slaveAddress, address, value);
+    }
+
+    @Override
+    public ModbusResponse onReadHoldingRegisters(int slaveAddress, int function, int address, int quantity){
+        int[] value = registers(mHoldingRegisters, address, quantity);
+        if (value == null)
+            return ModbusResponse.exception(slaveAddress, function, ModbusExceptionResponse.ILLEGAL_DATA_ADDRESS);
+        return ModbusResponse.readHoldingRegisters(slaveAddress, address, quantity, value);
+    }
+
+    @Override
+    public ModbusResponse onReadInputRegisters(int slaveAddress, int function, int address, int quantity){
+        int[] value = registers(mInputRegisters, address, quantity);
+        if (value == null)
+            return ModbusResponse.exception(slaveAddress, function, ModbusExceptionResponse.ILLEGAL_DATA_ADDRESS);
+        return ModbusResponse.readInputRegisters(slaveAddress, address, quantity, value);
+    }
+
+    @Override
+    public ModbusResponse onWriteSingleCoil(int slaveAddress, int function, int address, boolean value){
+        if (address >= mCoilCount)
+            return ModbusResponse.exception(slaveAddress, function, ModbusExceptionResponse.ILLEGAL_DATA_ADDRESS);
+        setCoil(address, value);
+        return ModbusResponse.writeSingleCoil(slaveAddress, address, value);
+    }
+
+    @Override
+    public ModbusResponse onWriteSingleRegister(int slaveAddress, int function, int address, int value){
+        if (address >= mHoldingRegisters.length)
+            return ModbusResponse.exception(slaveAddress, function, ModbusExceptionResponse.ILLEGAL_DATA_ADDRESS);
+        setHoldingRegister(address, value);
+        return ModbusResponse.writeSingleRegister(slaveAddress, address, value);
+    }
+
+    @Override
+    public ModbusResponse onWriteMultipleCoils(int slaveAddress, int function, int address, int quantity, boolean[] values){
+        if (address + quantity > mCoilCount)
+            return ModbusResponse.exception(slaveAddress, function, ModbusExceptionResponse.ILLEGAL_DATA_ADDRESS);
+        long stamp = mLock.writeLock();
+        try {
+            for (int i = 0 ; i < quantity ; i++)
+                setBit(mCoils, address + i, values[i]);
+        } finally {
+            mLock.unlockWrite(stamp);
+        }
+        return ModbusResponse.writeMultipleCoils(slaveAddress, address, quantity);
+    }
+
+    @Override
+    public ModbusResponse onWriteMultipleCoils(int slaveAddress, int function, int address, int quantity, ModbusCoils coils){
+        if (address + quantity > mCoilCount)
+            return ModbusResponse.exception(slaveAddress, function, ModbusExceptionResponse.ILLEGAL_DATA_ADDRESS);
+        long stamp = mLock.writeLock();
+        try {
+            for (int i = 0 ; i < quantity ; i++)
+                setBit(mCoils, address + i, coils.get(i));
+        } finally {
+            mLock.unlockWrite(stamp);
+        }
+        return ModbusResponse.writeMultipleCoils(slaveAddress, address, quantity);
+    }
+
+    @Override
+    public ModbusResponse onWriteMultipleRegisters(int slaveAddress, int function, int address, int quantity, int[] values){
+        if (address + quantity > mHoldingRegisters.length)
+            return ModbusResponse.exception(slaveAddress, function, ModbusExceptionResponse.ILLEGAL_DATA_ADDRESS);
+        long stamp = mLock.writeLock();
+        try {
+            for (int i = 0 ; i < quantity ; i++)
+                mHoldingRegisters[address + i] = (short) values[i];
+        } finally {
+            mLock.unlockWrite(stamp);
+        }
+        return ModbusResponse.writeMultipleRegisters(slaveAddress, address, quantity);
+    }
+
+    @Override
+    public void onRX(byte[] bytes){
+    }
+
+    @Override
+    public void onTX(byte[] bytes){
+    }
+
+    @Override
+    public void onRX(byte[] bytes, int offset, int length){
+    }
+
+    @Override
+    public void onTX(byte[] bytes, int offset, int length){
+    }
+}
@@ -0,0 +1,122 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2018 Luis Pichio.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package com.luispichio.ajmodbus;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Estado de salud por esclavo (circuit breaker).
+ * Tras una cantidad de timeouts consecutivos el esclavo pasa a "fuera de
+ * línea": sus requerimientos se descartan sin enviarse salvo uno cada cierto
+ * tiempo (sondeo), con espera exponencial entre sondeos fallidos. La primera
+ * respuesta lo vuelve "en línea".
+ * Uso exclusivo del hilo del Maestro.
+ * 
+ * @author Luis Pichio | luispichio@gmail.com | https://sites.google.com/site/luispichio/ | https://github.com/luispichio
+ */
+class ModbusSlaveHealth {
+    private static final int UNITS = ModbusTypes.MODBUS_UNITS;
+    
+    private final int[] mTimeouts = new int[UNITS];
+    private final boolean[] mOffline = new boolean[UNITS];
+    private final boolean[] mProbing = new boolean[UNITS];
+    /** Instante [ns] (System.nanoTime()) del próximo sondeo */
+    private final long[] mNextProbe = new long[UNITS];
+    private final int[] mProbeDelay = new int[UNITS];
+    
+    private static boolean valid(int slaveAddress){
+        return slaveAddress > 0 && slaveAddress < UNITS;
+    }
+    
+    boolean isOffline(int slaveAddress){
+        return valid(slaveAddress) && mOffline[slaveAddress];
+    }
+    
+    /**
+     * @return true si hay un sondeo en curso (sin respuesta ni timeout aún)
+     */
+    boolean isProbing(int slaveAddress){
+        return valid(slaveAddress) && mProbing[slaveAddress];
+    }
+    
+    /**
+     * Admisión de un requerimiento para envío.
+     * @param slaveAddress Dirección de esclavo
+     * @param now Instante [ns] (System.nanoTime())
+     * @return true si puede enviarse (en línea o sondeo)
+     */
+    boolean admit(int slaveAddress, long now){
+        if (!isOffline(slaveAddress))
+            return true;
+        if (mProbing[slaveAddress] || now - mNextProbe[slaveAddress] < 0)
+            return false;
+        mProbing[slaveAddress] = true;
+        return true;
+    }
+    
+    /**
+     * Respuesta recibida (normal o de excepción).
+     * @return true si el esclavo vuelve a estar en línea
+     */
+    boolean onResponse(int slaveAddress){
+        if (!valid(slaveAddress))
+            return false;
+        mTimeouts[slaveAddress] = 0;
+        mProbing[slaveAddress] = false;
+        if (!mOffline[slaveAddress])
+            return false;
+        mOffline[slaveAddress] = false;
+        return true;
+    }
+    
+    /**
+     * Timeout de respuesta.
+     * @param now Instante [ns] (System.nanoTime())
+     * @param threshold Timeouts consecutivos para pasar a fuera de línea
+     * (0 deshabilita)
+     * @param delay Espera inicial entre sondeos [ms]
+     * @param maxDelay Espera máxima entre sondeos [ms]
+     * @return true si el esclavo pasa a estar fuera de línea
+     */
+    boolean onTimeOut(int slaveAddress, long now, int threshold, int delay, int maxDelay){
+        if (!valid(slaveAddress))
+            return false;
+        if (mOffline[slaveAddress]){
+            //sondeo fallido
+            mProbing[slaveAddress] = false;
+            mProbeDelay[slaveAddress] = (int) Math.min(maxDelay, 2L * mProbeDelay[slaveAddress]);
+            mNextProbe[slaveAddress] = now + TimeUnit.MILLISECONDS.toNanos(mProbeDelay[slaveAddress]);
+            return false;
+        }
+        if (threshold <= 0 || ++mTimeouts[slaveAddress] < threshold)
+            return false;
+        mOffline[slaveAddress] = true;
+        mProbing[slaveAddress] = false;
+        mProbeDelay[slaveAddress] = Math.max(1, delay);
+        mNextProbe[slaveAddress] = now + TimeUnit.MILLISECONDS.toNanos(mProbeDelay[slaveAddress]);
+        return true;
+    }
+}
@@ -24,6 +24,8 @@
 
 package com.luispichio.ajmodbus;
 
+import java.util.Arrays;
+
 /**
  *
  * @author Luis Pichio | luispichio@gmail.com | https://sites.google.com/site/luispichio/ | https://github.com/luispichio
@@ -47,6 +49,19 @@ public interface ModbusSlaveListener {
      */
     public ModbusResponse onReadCoils(int slaveAddress, int function, int address, int quantity);
 
+    /**
+     * Evento de lectura de múltiples entradas discretas.
+     * Por defecto responde excepción ILLEGAL_FUNCTION.
+     * @param slaveAddress
+     * @param function
+     * @param address
+     * @param quantity
+     * @return
+     */
+    public default ModbusResponse onReadDiscreteInputs(int slaveAddress, int function, int address, int quantity){
+        return ModbusResponse.exception(slaveAddress, function, ModbusExceptionResponse.ILLEGAL_FUNCTION);
+    }
+
     /**
      * Evento de lectura de múltiples registros holding.
      * @param slaveAddress
@@ -98,6 +113,20 @@ public interface ModbusSlaveListener {
      */
     public ModbusResponse onWriteMultipleCoils(int slaveAddress, int function, int address, int quantity, boolean[] values);
 
+    /**
+     * Evento de escritura de múltiples coils (empaquetados).
+     * Por defecto desempaqueta y genera onWriteMultipleCoils(..., boolean[]).
+     * @param slaveAddress
+     * @param function
+     * @param address
+     * @param quantity
+     * @param coils
+     * @return
+     */
+    public default ModbusResponse onWriteMultipleCoils(int slaveAddress, int function, int address, int quantity, ModbusCoils coils){
+        return onWriteMultipleCoils(slaveAddress, function, address, quantity, coils.toBooleanArray());
+    }
+
     /**
      * Evento de escritura de múltiples registros holding.
      * @param slaveAddress
@@ -109,6 +138,23 @@ public interface ModbusSlaveListener {
      */
     public ModbusResponse onWriteMultipleRegisters(int slaveAddress, int function, int address, int quantity, int[] values);
     
+    /**
+     * Procesamiento directo de un requerimiento (sin objetos intermedios).
+     * Permite generar la respuesta directamente en el buffer de transmisión
+     * (p.e. ModbusSlaveDataModel). Por defecto no procesa y se generan los
+     * eventos de requerimiento.
+     * @param adu Buffer con el requerimiento (longitud ya validada)
+     * @param offset Posición de la ADU (dirección de esclavo)
+     * @param response Buffer de respuesta (al menos 256 bytes desde responseOffset)
+     * @param responseOffset Posición de la ADU de respuesta
+     * @return Longitud de la respuesta sin CRC (dirección + PDU), 0 si no
+     * fue procesado o -1 si fue procesado sin respuesta (broadcast, unidad
+     * ajena)
+     */
+    public default int onRequest(byte[] adu, int offset, byte[] response, int responseOffset){
+        return 0;
+    }
+    
     /**
      * Evento de recepción de tramas.
      * @param bytes
@@ -120,4 +166,28 @@ public interface ModbusSlaveListener {
      * @param bytes Trama a transmitir / que será transmitida por stream.
      */
     public void onTX(byte[] bytes);
+
+    /**
+     * Evento de recepción sobre el buffer interno (sin copia).
+     * Por defecto copia los bytes y genera onRX(byte[]); sobreescribir para
+     * evitar la reserva de memoria. Los datos sólo son válidos durante el evento.
+     * @param bytes Buffer
+     * @param offset Posición del primer byte recibido
+     * @param length Cantidad de bytes recibidos
+     */
+    public default void onRX(byte[] bytes, int offset, int length){
+        onRX(Arrays.copyOfRange(bytes, offset, offset + length));
+    }
+
+    /**
+     * Evento de transmisión sobre el buffer interno (sin copia).
+     * Por defecto copia los bytes y genera onTX(byte[]); sobreescribir para
+     * evitar la reserva de memoria. Los datos sólo son válidos durante el evento.
+     * @param bytes Buffer
+     * @param offset Posición del primer byte a transmitir
+     * @param length Cantidad de bytes a transmitir
+     */
+    public default void onTX(byte[] bytes, int offset, int length){
+        onTX(Arrays.copyOfRange(bytes, offset, offset + length));
+    }
 }
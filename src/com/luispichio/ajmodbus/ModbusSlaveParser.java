@@ -24,115 +24,130 @@
 
 package com.luispichio.ajmodbus;
 
-import java.util.Arrays;
-
 /**
  *
  * @author Luis Pichio | luispichio@gmail.com | https://sites.google.com/site/luispichio/ | https://github.com/luispichio
  */
 public class ModbusSlaveParser {
-    static byte[] readCoils(int slaveAddress, int address, int quantity, int value[]){
-	byte[] parse = new byte[256];
-        byte byteCount = (byte)((quantity % 8) == 0 ? quantity / 8 : quantity / 8 + 1);
-        int size = 0;
-        parse[size++] = (byte) (slaveAddress & 0xff);
-        parse[size++] = ModbusTypes.MODBUS_FUNCTION_READ_COILS;
-        parse[size++] = byteCount;
-        for (int i = 0 ; i < quantity ; i++)
-            if (value[i] != 0)
-                parse[size + i / 8] |= 1 << (i & 0x7);
+    static int readCoils(byte[] frame, int offset, int slaveAddress, int address, ModbusCoils coils){
+        return putBits(frame, offset, slaveAddress, ModbusTypes.MODBUS_FUNCTION_READ_COILS, coils);
+    }
+    
+    static int readDiscreteInputs(byte[] frame, int offset, int slaveAddress, int address, ModbusCoils inputs){
+        return putBits(frame, offset, slaveAddress, ModbusTypes.MODBUS_FUNCTION_READ_DISCRETE_INPUTS, inputs);
+    }
+    
+    private static int putBits(byte[] frame, int offset, int slaveAddress, byte function, ModbusCoils bits){
+        int size = offset;
+        frame[size++] = (byte) (slaveAddress & 0xff);
+        frame[size++] = function;
+        int byteCount = bits.put(frame, size + 1);
+        frame[size++] = (byte) byteCount;
         size += byteCount;
-        ModbusUtils.putWordFlip(parse, ModbusUtils.crc16(0xFFFF, parse, size), size); size += 2;
-        return Arrays.copyOf(parse, size);
+        return ModbusMasterParser.putCRC(frame, offset, size);
     }
     
-    static byte[] readHoldingRegisters(int slaveAddress, int address, int quantity, int values[]){
-	byte[] parse = new byte[256];
-        int size = 0;
-        parse[size++] = (byte) (slaveAddress & 0xff);
-        parse[size++] = ModbusTypes.MODBUS_FUNCTION_READ_HOLDING_REGISTERS;
-        parse[size++] = (byte)(2 * quantity);
-        for (int i = 0 ; i < quantity ; i++){
-            ModbusUtils.putWord(parse, values[i], size); size += 2;
-        }
-        ModbusUtils.putWordFlip(parse, ModbusUtils.crc16(0xFFFF, parse, size), size); size += 2;
-        return Arrays.copyOf(parse, size);
+    static int readHoldingRegisters(byte[] frame, int offset, int slaveAddress, int address, int quantity, int values[]){
+        return putRegisters(frame, offset, slaveAddress, ModbusTypes.MODBUS_FUNCTION_READ_HOLDING_REGISTERS, quantity, values);
     }
 
-    static byte[] readInputRegisters(int slaveAddress, int address, int quantity, int values[]){
-	byte[] parse = new byte[256];
-        int size = 0;
-        parse[size++] = (byte) (slaveAddress & 0xff);
-        parse[size++] = ModbusTypes.MODBUS_FUNCTION_READ_INPUT_REGISTERS;
-        parse[size++] = (byte)(2 * quantity);
+    static int readInputRegisters(byte[] frame, int offset, int slaveAddress, int address, int quantity, int values[]){
+        return putRegisters(frame, offset, slaveAddress, ModbusTypes.MODBUS_FUNCTION_READ_INPUT_REGISTERS, quantity, values);
+    }
+    
+    private static int putRegisters(byte[] frame, int offset, int slaveAddress, byte function, int quantity, int values[]){
+        int size = offset;
+        frame[size++] = (byte) (slaveAddress & 0xff);
+        frame[size++] = function;
+        frame[size++] = (byte)(2 * quantity);
         for (int i = 0 ; i < quantity ; i++){
-            ModbusUtils.putWord(parse, values[i], size); size += 2;
+            ModbusUtils.putWord(frame, values[i], size); size += 2;
         }
-        ModbusUtils.putWordFlip(parse, ModbusUtils.crc16(0xFFFF, parse, size), size); size += 2;
-        return Arrays.copyOf(parse, size);
+        return ModbusMasterParser.putCRC(frame, offset, size);
     }
 
-    static byte[] writeSingleCoil(int slaveAddress, int address, int value){
-	byte[] parse = new byte[256];
-        int size = 0;
-        parse[size++] = (byte) (slaveAddress & 0xff);
-        parse[size++] = ModbusTypes.MODBUS_FUNCTION_WRITE_SINGLE_COIL;
-        ModbusUtils.putWord(parse, address, size); size += 2;
-        ModbusUtils.putWord(parse, value, size); size += 2;
-        ModbusUtils.putWordFlip(parse, ModbusUtils.crc16(0xFFFF, parse, size), size); size += 2;
-        return Arrays.copyOf(parse, size);
+    static int writeSingleCoil(byte[] frame, int offset, int slaveAddress, int address, int value){
+        return putEcho(frame, offset, slaveAddress, ModbusTypes.MODBUS_FUNCTION_WRITE_SINGLE_COIL, address, value);
     }
         
-    static byte[] writeSingleRegister(int slaveAddress, int address, int value){
-	byte[] parse = new byte[256];
-        int size = 0;
-        parse[size++] = (byte) (slaveAddress & 0xff);
-        parse[size++] = ModbusTypes.MODBUS_FUNCTION_WRITE_SINGLE_REGISTER;
-        ModbusUtils.putWord(parse, address, size); size += 2;
-        ModbusUtils.putWord(parse, value, size); size += 2;
-        ModbusUtils.putWordFlip(parse, ModbusUtils.crc16(0xFFFF, parse, size), size); size += 2;
-        return Arrays.copyOf(parse, size);
+    static int writeSingleRegister(byte[] frame, int offset, int slaveAddress, int address, int value){
+        return putEcho(frame, offset, slaveAddress, ModbusTypes.MODBUS_FUNCTION_WRITE_SINGLE_REGISTER, address, value);
+    }
+    
+    static int writeMultipleCoils(byte[] frame, int offset, int slaveAddress, int address, int quantity){
+        return putEcho(frame, offset, slaveAddress, ModbusTypes.MODBUS_FUNCTION_WRITE_MULTIPLE_COILS, address, quantity);
     }
     
-    static byte[] writeMultipleCoils(int slaveAddress, int address, int quantity){
-	byte[] parse = new byte[256];
-        int size = 0;
-        parse[size++] = (byte) (slaveAddress & 0xff);
-        parse[size++] = ModbusTypes.MODBUS_FUNCTION_WRITE_MULTIPLE_COILS;
-        ModbusUtils.putWord(parse, address, size); size += 2;
-        ModbusUtils.putWord(parse, quantity, size); size += 2;
-        ModbusUtils.putWordFlip(parse, ModbusUtils.crc16(0xFFFF, parse, size), size); size += 2;
-        return Arrays.copyOf(parse, size);
-    }    
+    static int writeMultipleRegisters(byte[] frame, int offset, int slaveAddress, int address, int quantity){
+        return putEcho(frame, offset, slaveAddress, ModbusTypes.MODBUS_FUNCTION_WRITE_MULTIPLE_REGISTERS, address, quantity);
+    }
     
-    static byte[] writeMultipleRegisters(int slaveAddress, int address, int quantity){
-	byte[] parse = new byte[256];
-        int size = 0;
-        parse[size++] = (byte) (slaveAddress & 0xff);
-        parse[size++] = ModbusTypes.MODBUS_FUNCTION_WRITE_MULTIPLE_REGISTERS;
-        ModbusUtils.putWord(parse, address, size); size += 2;
-        ModbusUtils.putWord(parse, quantity, size); size += 2;
-        ModbusUtils.putWordFlip(parse, ModbusUtils.crc16(0xFFFF, parse, size), size); size += 2;
-        return Arrays.copyOf(parse, size);
+    /**
+     * Respuesta de formato fijo: función + 2 palabras (eco de dirección y
+     * cantidad / valor).
+     */
+    private static int putEcho(byte[] frame, int offset, int slaveAddress, byte function, int address, int value){
+        int size = offset;
+        frame[size++] = (byte) (slaveAddress & 0xff);
+        frame[size++] = function;
+        ModbusUtils.putWord(frame, address, size); size += 2;
+        ModbusUtils.putWord(frame, value, size); size += 2;
+        return ModbusMasterParser.putCRC(frame, offset, size);
     }
 
-    static byte[] exception(int slaveAddress, int function, int code){
-	byte[] parse = new byte[256];
-        int size = 0;
-        parse[size++] = (byte) slaveAddress;
-        parse[size++] = (byte) (0x80 | function);
-        parse[size++] = (byte) code;
-        ModbusUtils.putWordFlip(parse, ModbusUtils.crc16(0xFFFF, parse, size), size); size += 2;
-        return Arrays.copyOf(parse, size);        
+    static int exception(byte[] frame, int offset, int slaveAddress, int function, int code){
+        int size = offset;
+        frame[size++] = (byte) slaveAddress;
+        frame[size++] = (byte) (0x80 | function);
+        frame[size++] = (byte) code;
+        return ModbusMasterParser.putCRC(frame, offset, size);
+    }
+    
+    /**
+     * Genera la ADU de una respuesta en el buffer indicado (sin reservar
+     * memoria).
+     * @param frame Buffer destino (al menos 256 bytes a partir de offset)
+     * @param offset Posición de la ADU en el buffer
+     * @param response Respuesta
+     * @return Longitud de la ADU o 0 si no hay respuesta
+     */
+    static int response(byte[] frame, int offset, ModbusResponse response){
+        if (response == null)
+            return 0;
+        if (response.getClass().equals(ModbusNormalResponse.class)){
+            ModbusNormalResponse normalResponse = (ModbusNormalResponse) response;
+            switch (normalResponse.function){
+                case ModbusTypes.MODBUS_FUNCTION_READ_COILS:
+                    return readCoils(frame, offset, normalResponse.slaveAddress, normalResponse.address, normalResponse.coils);
+                case ModbusTypes.MODBUS_FUNCTION_READ_DISCRETE_INPUTS:
+                    return readDiscreteInputs(frame, offset, normalResponse.slaveAddress, normalResponse.address, normalResponse.coils);
+                case ModbusTypes.MODBUS_FUNCTION_READ_HOLDING_REGISTERS:
+                    return readHoldingRegisters(frame, offset, normalResponse.slaveAddress, normalResponse.address, normalResponse.quantity, normalResponse.value);
+                case ModbusTypes.MODBUS_FUNCTION_READ_INPUT_REGISTERS:
+                    return readInputRegisters(frame, offset, normalResponse.slaveAddress, normalResponse.address, normalResponse.quantity, normalResponse.value);
+                case ModbusTypes.MODBUS_FUNCTION_WRITE_SINGLE_COIL:
+                    return writeSingleCoil(frame, offset, normalResponse.slaveAddress, normalResponse.address, normalResponse.value[0]);
+                case ModbusTypes.MODBUS_FUNCTION_WRITE_SINGLE_REGISTER:
+                    return writeSingleRegister(frame, offset, normalResponse.slaveAddress, normalResponse.address, normalResponse.value[0]);
+                case ModbusTypes.MODBUS_FUNCTION_WRITE_MULTIPLE_COILS:
+                    return writeMultipleCoils(frame, offset, normalResponse.slaveAddress, normalResponse.address, normalResponse.quantity);
+                case ModbusTypes.MODBUS_FUNCTION_WRITE_MULTIPLE_REGISTERS:
+                    return writeMultipleRegisters(frame, offset, normalResponse.slaveAddress, normalResponse.address, normalResponse.quantity);
+            }
+            return 0;
+        }
+        ModbusExceptionResponse exceptionResponse = (ModbusExceptionResponse) response;
+        return exception(frame, offset, exceptionResponse.slaveAddress, exceptionResponse.function, exceptionResponse.code);
     }
     
     static boolean validAddressSlave(int address){
-        return address < 247;
+        return address <= 247;
     }
     
     static boolean validFunction(int function){
         switch (function){
             case ModbusTypes.MODBUS_FUNCTION_READ_COILS:
+            case ModbusTypes.MODBUS_FUNCTION_READ_DISCRETE_INPUTS:
             case ModbusTypes.MODBUS_FUNCTION_READ_HOLDING_REGISTERS:
             case ModbusTypes.MODBUS_FUNCTION_READ_INPUT_REGISTERS:
             case ModbusTypes.MODBUS_FUNCTION_WRITE_SINGLE_COIL:
@@ -144,40 +159,42 @@ public class ModbusSlaveParser {
         return false;
     }
     
-    static int findValidADU(byte[] frame, int frameSize){
-        int offset_begin = 0;
-        int offset_end;
-        while (offset_begin <= frameSize - 8){
-            offset_end = offset_begin;
-            if (validAddressSlave(frame[offset_end++] & 0xFF)){
-                if (validFunction(frame[offset_end] & 0xFF)){
-                    switch (frame[offset_end++]){
-                        case ModbusTypes.MODBUS_FUNCTION_READ_COILS:
-                        case ModbusTypes.MODBUS_FUNCTION_READ_HOLDING_REGISTERS:
-                        case ModbusTypes.MODBUS_FUNCTION_READ_INPUT_REGISTERS:
-                        case ModbusTypes.MODBUS_FUNCTION_WRITE_SINGLE_COIL:
-                        case ModbusTypes.MODBUS_FUNCTION_WRITE_SINGLE_REGISTER:
-                            offset_end += 4;
-                        break;                       
-                        case ModbusTypes.MODBUS_FUNCTION_WRITE_MULTIPLE_COILS:
-                        case ModbusTypes.MODBUS_FUNCTION_WRITE_MULTIPLE_REGISTERS:
-                            offset_end += 4;
-                            int byteCount = frame[offset_end++] & 0xFF;
-                            if (frame.length - offset_end < byteCount + 2){
-                                offset_begin++;
-                                continue;
-                            }
-                            offset_end += byteCount;
-                        break;
-                    }
-                    if (ModbusUtils.getWordFlip(frame, offset_end) == ModbusUtils.crc16(0xFFFF, frame, offset_end))
-                        return offset_begin;
-                }
-            }
-            offset_begin++;
+    /**
+     * Longitud de la ADU de requerimiento (sin CRC) presente en offset.
+     * @param frame Buffer
+     * @param offset Inicio de ADU (dirección de esclavo)
+     * @param size Bytes disponibles a partir de offset
+     * @return Longitud sin CRC, 0 si no hay bytes suficientes para determinarla
+     * o -1 si la función no es soportada o el requerimiento es inconsistente
+     */
+    static int requestLength(byte[] frame, int offset, int size){
+        if (size < 2)
+            return 0;
+        switch (frame[offset + 1]){
+            case ModbusTypes.MODBUS_FUNCTION_READ_COILS:
+            case ModbusTypes.MODBUS_FUNCTION_READ_DISCRETE_INPUTS:
+            case ModbusTypes.MODBUS_FUNCTION_READ_HOLDING_REGISTERS:
+            case ModbusTypes.MODBUS_FUNCTION_READ_INPUT_REGISTERS:
+            case ModbusTypes.MODBUS_FUNCTION_WRITE_SINGLE_COIL:
+            case ModbusTypes.MODBUS_FUNCTION_WRITE_SINGLE_REGISTER:
+                return 6;
+            case ModbusTypes.MODBUS_FUNCTION_WRITE_MULTIPLE_COILS:
+            case ModbusTypes.MODBUS_FUNCTION_WRITE_MULTIPLE_REGISTERS:
+                if (size < 7)
+                    return 0;
+                int quantity = ModbusUtils.getWord(frame, offset + 4);
+                int byteCount = frame[offset + 6] & 0xFF;
+                int expected = frame[offset + 1] == ModbusTypes.MODBUS_FUNCTION_WRITE_MULTIPLE_COILS ? (quantity + 7) / 8 : 2 * quantity;
+                if (byteCount != expected)
+                    return -1;
+                return 7 + byteCount;
         }
         return -1;
     }
+    
+    static int findValidADU(byte[] frame, int frameSize){
+        return new ModbusRTUFramer.Requests().scan(frame, frameSize, true);
+    }
      
     static ModbusRequest takeRequestFromADU(byte[] adu, int offset){
         ModbusRequest request = new ModbusRequest();
@@ -185,6 +202,7 @@ public class ModbusSlaveParser {
         request.function = adu[offset++] & 0xFF;
         switch (request.function){
             case ModbusTypes.MODBUS_FUNCTION_READ_COILS:
+            case ModbusTypes.MODBUS_FUNCTION_READ_DISCRETE_INPUTS:
             case ModbusTypes.MODBUS_FUNCTION_READ_HOLDING_REGISTERS:
             case ModbusTypes.MODBUS_FUNCTION_READ_INPUT_REGISTERS:
                 request.address = ModbusUtils.getWord(adu, offset);
@@ -206,9 +224,7 @@ public class ModbusSlaveParser {
                 request.quantity = ModbusUtils.getWord(adu, offset);
                 offset += 2;
                 offset++;
-                request.value = new int[request.quantity];
-                for (int i = 0 ; i < request.quantity ; i++)
-                    request.value[i] = (adu[offset + i / 8] & (1 << (i % 8))) != 0 ? 0xFF00 : 0x0000;
+                request.coils = ModbusCoils.valueOf(adu, offset, request.quantity);
             break;
             case ModbusTypes.MODBUS_FUNCTION_WRITE_MULTIPLE_REGISTERS:
                 request.address = ModbusUtils.getWord(adu, offset);
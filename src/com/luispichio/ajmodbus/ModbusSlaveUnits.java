@@ -0,0 +1,202 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2018 Luis Pichio.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package com.luispichio.ajmodbus;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Esclavo multi-unidad: aloja varios esclavos virtuales (unit ID), cada uno
+ * con su propio ModbusSlaveListener (p.e. ModbusSlaveDataModel), detrás de un
+ * único ModbusSlave o ModbusTCPSlave.
+ * Los requerimientos se despachan por dirección en O(1); los dirigidos a
+ * unidades no alojadas se ignoran (sin respuesta) y los broadcast (dirección
+ * 0) se aplican a todas las unidades sin responder.
+ * 
+ * @author Luis Pichio | luispichio@gmail.com | https://sites.google.com/site/luispichio/ | https://github.com/luispichio
+ */
+public class ModbusSlaveUnits implements ModbusSlaveListener {
+    private static final int UNITS = ModbusTypes.MODBUS_UNITS;
+    
+    private final AtomicReferenceArray<ModbusSlaveListener> mUnits = new AtomicReferenceArray<>(UNITS);
+    /**
+     * Destino de las respuestas (descartadas) a broadcast. Su contenido nunca
+     * se lee, por lo que puede compartirse entre hilos.
+     */
+    private final byte[] mDiscard = new byte[260];
+    
+    /**
+     * Aloja una unidad.
+     * @param unit Dirección (1 .. 247 en RTU, 1 .. 255 en TCP)
+     * @param listener "Escuchador" / modelo de datos de la unidad
+     */
+    public void setUnit(int unit, ModbusSlaveListener listener){
+        if (unit <= 0 || unit >= UNITS)
+            throw new IllegalArgumentException("Dirección de unidad inválida: " + unit);
+        mUnits.set(unit, listener);
+    }
+    
+    /**
+     * Quita una unidad.
+     * @param unit Dirección (1 .. 255)
+     */
+    public void removeUnit(int unit){
+        if (unit > 0 && unit < UNITS)
+            mUnits.set(unit, null);
+    }
+    
+    /**
+     * @param unit Dirección
+     * @return "Escuchador" de la unidad o null si no está alojada
+     */
+    public ModbusSlaveListener getUnit(int unit){
+        return unit > 0 && unit < UNITS ? mUnits.get(unit) : null;
+    }
+    
+    private static boolean isWrite(int function){
+        switch (function){
+            case ModbusTypes.MODBUS_FUNCTION_WRITE_SINGLE_COIL:
+            case ModbusTypes.MODBUS_FUNCTION_WRITE_SINGLE_REGISTER:
+            case ModbusTypes.MODBUS_FUNCTION_WRITE_MULTIPLE_COILS:
+            case ModbusTypes.MODBUS_FUNCTION_WRITE_MULTIPLE_REGISTERS:
+                return true;
+        }
+        return false;
+    }
+    
+    /**
+     * Procesa el requerimiento en una unidad (forma directa o eventos).
+     */
+    private static int process(ModbusSlaveListener unit, byte[] adu, int offset, byte[] response, int responseOffset){
+        int size = unit.onRequest(adu, offset, response, responseOffset);
+        if (size != 0)
+            return size;
+        ModbusRequest request = ModbusSlaveParser.takeRequestFromADU(adu, offset);
+        if (request == null)
+            return -1;
+        size = ModbusSlaveParser.response(response, responseOffset, ModbusSlave.dispatchRequest(unit, request));
+        return size > 0 ? size - 2 : -1;
+    }
+
+    @Override
+    public int onRequest(byte[] adu, int offset, byte[] response, int responseOffset){
+        int address = adu[offset] & 0xFF;
+        if (address == 0){
+            if (isWrite(adu[offset + 1] & 0xFF)){
+                for (int unit = 1 ; unit < UNITS ; unit++){
+                    ModbusSlaveListener listener = mUnits.get(unit);
+                    if (listener != null)
+                        process(listener, adu, offset, mDiscard, 0);
+                }
+            }
+            return -1;
+        }
+        ModbusSlaveListener listener = getUnit(address);
+        if (listener == null)
+            return -1;
+        return process(listener, adu, offset, response, responseOffset);
+    }
+    
+    /*
+     * Eventos de requerimiento: delegados a la unidad (sólo se utilizan si el
+     * Esclavo genera eventos en lugar del procesamiento directo).
+     */
+
+    @Override
+    public ModbusResponse onRequest(ModbusRequest request){
+        ModbusSlaveListener listener = getUnit(request.slaveAddress);
+        return listener == null ? null : listener.onRequest(request);
+    }
+
+    @Override
+    public ModbusResponse onReadCoils(int slaveAddress, int function, int address, int quantity){
+        ModbusSlaveListener listener = getUnit(slaveAddress);
+        return listener == null ? null : listener.onReadCoils(slaveAddress, function, address, quantity);
+    }
+
+    @Override
+    public ModbusResponse onReadDiscreteInputs(int slaveAddress, int function, int address, int quantity){
+        ModbusSlaveListener listener = getUnit(slaveAddress);
+        return listener == null ? null : listener.onReadDiscreteInputs(slaveAddress, function, address, quantity);
+    }
+
+    @Override
+    public ModbusResponse onReadHoldingRegisters(int slaveAddress, int function, int address, int quantity){
+        ModbusSlaveListener listener = getUnit(slaveAddress);
+        return listener == null ? null : listener.onReadHoldingRegisters(slaveAddress, function, address, quantity);
+    }
+
+    @Override
+    public ModbusResponse onReadInputRegisters(int slaveAddress, int function, int address, int quantity){
+        ModbusSlaveListener listener = getUnit(slaveAddress);
+        return listener == null ? null : listener.onReadInputRegisters(slaveAddress, function, address, quantity);
+    }
+
+    @Override
+    public ModbusResponse onWriteSingleCoil(int slaveAddress, int function, int address, boolean value){
+        ModbusSlaveListener listener = getUnit(slaveAddress);
+        return listener == null ? null : listener.onWriteSingleCoil(slaveAddress, function, address, value);
+    }
+
+    @Override
+    public ModbusResponse onWriteSingleRegister(int slaveAddress, int function, int address, int value){
+        ModbusSlaveListener listener = getUnit(slaveAddress);
+        return listener == null ? null : listener.onWriteSingleRegister(slaveAddress, function, address, value);
+    }
+
+    @Override
+    public ModbusResponse onWriteMultipleCoils(int slaveAddress, int function, int address, int quantity, boolean[] values){
+        ModbusSlaveListener listener = getUnit(slaveAddress);
+        return listener == null ? null : listener.onWriteMultipleCoils(slaveAddress, function, address, quantity, values);
+    }
+
+    @Override
+    public ModbusResponse onWriteMultipleCoils(int slaveAddress, int function, int address, int quantity, ModbusCoils coils){
+        ModbusSlaveListener listener = getUnit(slaveAddress);
+        return listener == null ? null : listener.onWriteMultipleCoils(slaveAddress, function, address, quantity, coils);
+    }
+
+    @Override
+    public ModbusResponse onWriteMultipleRegisters(int slaveAddress, int function, int address, int quantity, int[] values){
+        ModbusSlaveListener listener = getUnit(slaveAddress);
+        return listener == null ? null : listener.onWriteMultipleRegisters(slaveAddress, function, address, quantity, values);
+    }
+
+    @Override
+    public void onRX(byte[] bytes){
+    }
+
+    @Override
+    public void onTX(byte[] bytes){
+    }
+
+    @Override
+    public void onRX(byte[] bytes, int offset, int length){
+    }
+
+    @Override
+    public void onTX(byte[] bytes, int offset, int length){
+    }
+}
@@ -0,0 +1,223 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2018 Luis Pichio.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package com.luispichio.ajmodbus;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Maestro Modbus TCP.
+ * Utiliza la misma interfaz de requerimientos que ModbusMaster pero con
+ * encapsulado MBAP y múltiples transacciones simultáneas por conexión
+ * (pipelining), asociando las respuestas por identificador de transacción.
+ * 
+ * @author Luis Pichio | luispichio@gmail.com | https://sites.google.com/site/luispichio/ | https://github.com/luispichio
+ */
+public class ModbusTCPMaster extends ModbusMaster {
+    /**
+     * Cantidad máxima de transacciones simultáneas (en vuelo).
+     */
+    public int maxTransactions;
+    
+    private final ArrayList<ModbusRequest> mTransactions = new ArrayList<>();
+    private int mTransactionId;
+    private long mBusySince;
+    /**
+     * Requerimiento fuera de mTransactions durante su envío o el proceso de
+     * su respuesta / timeout (ver recover()).
+     */
+    private ModbusRequest mCurrentRequest;
+
+    /**
+     * Constructor de la clase
+     * @param inputStream Stream de entrada de datos (recepción)
+     * @param outputStream Stream de salida de datos (transmisión)
+     * @param listener "Escuchador" que recibirá los eventos del Mastro Modbus.
+     */
+    public ModbusTCPMaster(InputStream inputStream, OutputStream outputStream, ModbusMasterListener listener){
+        super(inputStream, outputStream, listener);
+        setup(1000, 16, 0);
+    }
+
+    /**
+     * Constructor de la clase
+     * @param socket Conexión con el esclavo (servidor) Modbus TCP
+     * @param listener "Escuchador" que recibirá los eventos del Mastro Modbus.
+     * @throws IOException
+     */
+    public ModbusTCPMaster(Socket socket, ModbusMasterListener listener) throws IOException {
+        this(socket.getInputStream(), socket.getOutputStream(), listener);
+        socket.setTcpNoDelay(true);
+    }
+    
+    /**
+     * Configuración de parámetros del Maestro Modbus TCP
+     * @param responseTimeOut Tiempo máximo de respuesta de un esclavo hasta
+     * reintento o timeout.
+     * @param maxTransactions Cantidad máxima de transacciones simultáneas.
+     * @param retrys Cantidad de reintentos.
+     */
+    public void setup(int responseTimeOut, int maxTransactions, int retrys){
+        setup(responseTimeOut, 0, 0, retrys);
+        this.maxTransactions = maxTransactions;
+    }
+    
+    private void doRequest(ModbusRequest request){
+        mCurrentRequest = request;
+        int size = ModbusMasterParser.request(mTXBuffer, ModbusTCPParser.MBAP_UNIT_OFFSET, request) - 2;
+        if (size <= 0){
+            //requerimiento inválido
+            onSlaveFailure(request);
+            mCurrentRequest = null;
+            finish(request);
+            return;
+        }
+        request.transactionId = mTransactionId;
+        mTransactionId = (mTransactionId + 1) & 0xFFFF;
+        request.sent = System.nanoTime();
+        request.timeOut = getResponseTimeOut(request.slaveAddress);
+        mMetrics.onSent(request, request.sent);
+        ModbusTCPParser.putHeader(mTXBuffer, 0, request.transactionId, size);
+        transmit(mTXBuffer, 0, ModbusTCPParser.MBAP_UNIT_OFFSET + size);
+        mCurrentRequest = null;
+        if (request.slaveAddress == 0){
+            //broadcast (sin respuesta)
+            finishBroadcast(request);
+            return;
+        }
+        if (mTransactions.isEmpty())
+            mBusySince = request.sent;
+        mTransactions.add(request);
+    }
+    
+    private ModbusRequest takeTransaction(int transactionId){
+        for (int i = 0 ; i < mTransactions.size() ; i++)
+            if (mTransactions.get(i).transactionId == transactionId)
+                return removeTransaction(i);
+        return null;
+    }
+    
+    private ModbusRequest removeTransaction(int index){
+        ModbusRequest request = mTransactions.remove(index);
+        if (mTransactions.isEmpty())
+            mMetrics.onBusy(System.nanoTime() - mBusySince);
+        return request;
+    }
+    
+    private void processRX(){
+        int offset = 0;
+        int length;
+        while ((length = ModbusTCPParser.frameLength(mRXBuffer, offset, mRXBufferSize - offset)) > 0){
+            ModbusRequest request = takeTransaction(ModbusUtils.getWord(mRXBuffer, offset));
+            if (request != null){
+                mCurrentRequest = request;
+                int adu = offset + ModbusTCPParser.MBAP_UNIT_OFFSET;
+                boolean done = false;
+                if (ModbusMasterParser.validSlaveAddress(mRXBuffer[adu] & 0xFF, request.slaveAddress) && 
+                        ModbusMasterParser.validFunction(mRXBuffer[adu + 1] & 0xFF, request.function)){
+                    long now = System.nanoTime();
+                    mTimeOuts.sample(request.slaveAddress, (now - request.sent) / 1000);
+                    mMetrics.onResponse(request, now);
+                    onSlaveResponse(request);
+                    done = onResponse(request, mRXBuffer, adu);
+                } else {
+                    mMetrics.onFramingError();
+                    onSlaveFailure(request);
+                }
+                mCurrentRequest = null;
+                if (done)
+                    finish(request);
+                else
+                    retry(request);
+            }
+            offset += length;
+        }
+        if (length < 0){
+            mMetrics.onFramingError();
+            purgeRX();
+        }
+        else if (offset > 0){
+            System.arraycopy(mRXBuffer, offset, mRXBuffer, 0, mRXBufferSize - offset);
+            mRXBufferSize -= offset;
+        }
+    }
+    
+    @Override
+    synchronized void process(){
+        drainSubmissions();
+        processRX();
+        releasePollGroups(System.nanoTime());
+        long nanos = System.nanoTime();
+        for (int i = mTransactions.size() - 1 ; i >= 0 ; i--){
+            ModbusRequest request = mTransactions.get(i);
+            if (nanos - request.sent >= TimeUnit.MILLISECONDS.toNanos(request.timeOut)){
+                removeTransaction(i);
+                mCurrentRequest = request;
+                mTimeOuts.backoff(request.slaveAddress);
+                onSlaveTimeOut(request);
+                mMetrics.onTimeOut(request);
+                onTimeOut(request);
+                mCurrentRequest = null;
+                retry(request);
+            }
+        }
+        ModbusRequest request;
+        while (mTransactions.size() < maxTransactions && (request = takeRequest()) != null)
+            doRequest(request);
+    }
+
+    @Override
+    synchronized void recover(){
+        ModbusRequest request = mCurrentRequest;
+        mCurrentRequest = null;
+        if (request != null)
+            finish(request);
+    }
+
+    @Override
+    synchronized long nextEventTime(){
+        long next = Long.MAX_VALUE;
+        if (mTransactions.size() < maxTransactions)
+            next = nextRequestNanos();
+        for (ModbusRequest request : mTransactions)
+            next = Math.min(next, request.sent + TimeUnit.MILLISECONDS.toNanos(request.timeOut));
+        return next;
+    }
+
+    @Override
+    public synchronized boolean emptyRequestTail(){
+        return mRequestTail.isEmpty() && mTransactions.isEmpty();
+    }
+
+    @Override
+    public synchronized int pendingRequestCount(){
+        return mRequestTail.size() + mTransactions.size();
+    }
+}
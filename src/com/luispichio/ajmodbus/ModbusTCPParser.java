@@ -0,0 +1,79 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2018 Luis Pichio.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package com.luispichio.ajmodbus;
+
+/**
+ * Fraseador (parser) Modbus TCP
+ * Encapsula / reconoce tramas MBAP (MODBUS Application Protocol header).
+ * La trama MBAP se forma a partir de la ADU RTU reemplazando el CRC por la
+ * cabecera: la Unidad ocupa el lugar de la dirección de esclavo, por lo que
+ * a partir de offset + MBAP_UNIT_OFFSET la trama puede procesarse con los
+ * fraseadores RTU.
+ * 
+ * Basado en especificaciones de Modbus Organization Inc.
+ *   MODBUS Messaging on TCP/IP Implementation Guide V1.0b
+ *   http://modbus.org/
+ * 
+ * @author Luis Pichio | luispichio@gmail.com | https://sites.google.com/site/luispichio/ | https://github.com/luispichio
+ */
+public class ModbusTCPParser {
+    static final int MBAP_UNIT_OFFSET = 6;
+    static final int MBAP_MAX_LENGTH = 254;
+    
+    /**
+     * Escribe la cabecera MBAP (sin Unidad).
+     * @param frame Buffer destino
+     * @param offset Posición de la cabecera
+     * @param transactionId Identificador de transacción
+     * @param length Longitud de Unidad + PDU
+     */
+    static void putHeader(byte[] frame, int offset, int transactionId, int length){
+        ModbusUtils.putWord(frame, transactionId & 0xFFFF, offset);
+        ModbusUtils.putWord(frame, 0, offset + 2);
+        ModbusUtils.putWord(frame, length, offset + 4);
+    }
+    
+    /**
+     * Longitud de la trama MBAP presente en offset.
+     * @param frame Buffer
+     * @param offset Inicio de trama
+     * @param size Bytes disponibles a partir de offset
+     * @return Longitud total de la trama, 0 si la trama está incompleta o -1
+     * si la cabecera es inválida
+     */
+    static int frameLength(byte[] frame, int offset, int size){
+        if (size < MBAP_UNIT_OFFSET + 2)
+            return 0;
+        if (ModbusUtils.getWord(frame, offset + 2) != 0)
+            return -1;
+        int length = ModbusUtils.getWord(frame, offset + 4);
+        if (length < 2 || length > MBAP_MAX_LENGTH)
+            return -1;
+        if (size < MBAP_UNIT_OFFSET + length)
+            return 0;
+        return MBAP_UNIT_OFFSET + length;
+    }
+}
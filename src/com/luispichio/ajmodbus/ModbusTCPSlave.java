@@ -0,0 +1,313 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2018 Luis Pichio.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package com.luispichio.ajmodbus;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Esclavo (servidor) Modbus TCP.
+ * Atiende múltiples conexiones simultáneas con NIO: un hilo de aceptación y
+ * un pequeño conjunto de hilos de selección entre los que se reparten las
+ * conexiones. Los requerimientos se procesan directamente sobre el buffer de
+ * recepción de cada conexión y se despachan al ModbusSlaveListener.
+ * 
+ * Con más de un hilo de selección el "Escuchador" es invocado en forma
+ * concurrente, por lo que debe ser thread-safe. Una RuntimeException del
+ * "Escuchador" se registra (log) y cierra la conexión que la originó.
+ * 
+ * @author Luis Pichio | luispichio@gmail.com | https://sites.google.com/site/luispichio/ | https://github.com/luispichio
+ */
+public class ModbusTCPSlave {
+    private static final int BUFFER_SIZE = 4096;
+    
+    private final ModbusSlaveListener mListener;
+    private final int mPort;
+    private final Worker[] mWorkers;
+    private int mNextWorker;
+    
+    private ServerSocketChannel mServerChannel;
+    private Selector mAcceptSelector;
+    private volatile boolean mRunning;
+
+    /**
+     * Constructor de la clase
+     * @param port Puerto TCP de escucha (0 = puerto libre cualquiera)
+     * @param listener "Escuchador" que recibirá los requerimientos.
+     * @param selectorThreads Cantidad de hilos de selección.
+     */
+    public ModbusTCPSlave(int port, ModbusSlaveListener listener, int selectorThreads){
+        mPort = port;
+        mListener = listener;
+        mWorkers = new Worker[Math.max(1, selectorThreads)];
+    }
+
+    /**
+     * Constructor de la clase (un hilo de selección por procesador).
+     * @param port Puerto TCP de escucha
+     * @param listener "Escuchador" que recibirá los requerimientos.
+     */
+    public ModbusTCPSlave(int port, ModbusSlaveListener listener){
+        this(port, listener, Runtime.getRuntime().availableProcessors());
+    }
+    
+    /**
+     * Inicia la escucha de conexiones.
+     * @throws IOException
+     */
+    public synchronized void start() throws IOException {
+        if (mRunning)
+            return;
+        mServerChannel = ServerSocketChannel.open();
+        mServerChannel.bind(new InetSocketAddress(mPort));
+        mServerChannel.configureBlocking(false);
+        mAcceptSelector = Selector.open();
+        mServerChannel.register(mAcceptSelector, SelectionKey.OP_ACCEPT);
+        mRunning = true;
+        for (int i = 0 ; i < mWorkers.length ; i++){
+            mWorkers[i] = new Worker();
+            startThread(mWorkers[i], "ModbusTCPSlave-" + i);
+        }
+        startThread(this::accept, "ModbusTCPSlave-accept");
+    }
+    
+    /**
+     * Detiene el servidor y cierra todas las conexiones.
+     */
+    public synchronized void stop(){
+        if (!mRunning)
+            return;
+        mRunning = false;
+        close(mAcceptSelector);
+        for (Worker worker : mWorkers)
+            close(worker.mSelector);
+        try {
+            mServerChannel.close();
+        } catch (IOException ex) {
+            Logger.getLogger(ModbusTCPSlave.class.getName()).log(Level.SEVERE, null, ex);
+        }
+    }
+    
+    /**
+     * Puerto de escucha (útil cuando se inicia con puerto 0).
+     * @return Puerto TCP local
+     */
+    public int getLocalPort(){
+        return mServerChannel.socket().getLocalPort();
+    }
+    
+    /**
+     * Cantidad de conexiones abiertas.
+     * @return Cantidad de conexiones
+     */
+    public int connectionCount(){
+        int count = 0;
+        for (Worker worker : mWorkers)
+            if (worker != null)
+                try {
+                    count += worker.mSelector.keys().size();
+                } catch (ClosedSelectorException ex) {
+                    //detenido: sin conexiones
+                }
+        return count;
+    }
+    
+    private static void startThread(Runnable runnable, String name){
+        Thread thread = new Thread(runnable, name);
+        thread.setDaemon(true);
+        thread.start();
+    }
+    
+    private static void close(Selector selector){
+        try {
+            for (SelectionKey key : selector.keys())
+                key.channel().close();
+            selector.close();
+        } catch (IOException | ClosedSelectorException ex) {
+            Logger.getLogger(ModbusTCPSlave.class.getName()).log(Level.FINE, null, ex);
+        }
+    }
+    
+    private static void close(SelectionKey key){
+        key.cancel();
+        try {
+            key.channel().close();
+        } catch (IOException ex) {
+            Logger.getLogger(ModbusTCPSlave.class.getName()).log(Level.FINE, null, ex);
+        }
+    }
+    
+    private void accept(){
+        try {
+            while (mRunning){
+                mAcceptSelector.select();
+                mAcceptSelector.selectedKeys().clear();
+                SocketChannel channel;
+                while ((channel = mServerChannel.accept()) != null){
+                    channel.configureBlocking(false);
+                    channel.socket().setTcpNoDelay(true);
+                    mWorkers[mNextWorker].add(channel);
+                    mNextWorker = (mNextWorker + 1) % mWorkers.length;
+                }
+            }
+        } catch (IOException | ClosedSelectorException ex) {
+            if (mRunning)
+                Logger.getLogger(ModbusTCPSlave.class.getName()).log(Level.SEVERE, null, ex);
+        }
+    }
+    
+    private static class Connection {
+        final ByteBuffer rx = ByteBuffer.allocate(BUFFER_SIZE);
+        final ByteBuffer tx = ByteBuffer.allocate(BUFFER_SIZE);
+    }
+    
+    private class Worker implements Runnable {
+        private final Selector mSelector;
+        private final ConcurrentLinkedQueue<SocketChannel> mPending = new ConcurrentLinkedQueue<>();
+        
+        Worker() throws IOException {
+            mSelector = Selector.open();
+        }
+        
+        void add(SocketChannel channel){
+            mPending.add(channel);
+            mSelector.wakeup();
+        }
+        
+        @Override
+        public void run(){
+            try {
+                while (mRunning){
+                    mSelector.select();
+                    SocketChannel channel;
+                    while ((channel = mPending.poll()) != null)
+                        channel.register(mSelector, SelectionKey.OP_READ, new Connection());
+                    Iterator<SelectionKey> keys = mSelector.selectedKeys().iterator();
+                    while (keys.hasNext()){
+                        SelectionKey key = keys.next();
+                        keys.remove();
+                        try {
+                            if (key.isValid() && key.isReadable())
+                                read(key);
+                            if (key.isValid() && key.isWritable()){
+                                write(key);
+                                process(key);
+                            }
+                        } catch (IOException ex) {
+                            close(key);
+                        } catch (RuntimeException ex) {
+                            //excepción del "escuchador": se cierra sólo esta conexión
+                            Logger.getLogger(ModbusTCPSlave.class.getName()).log(Level.SEVERE, null, ex);
+                            close(key);
+                        }
+                    }
+                }
+            } catch (IOException | ClosedSelectorException ex) {
+                if (mRunning)
+                    Logger.getLogger(ModbusTCPSlave.class.getName()).log(Level.SEVERE, null, ex);
+            }
+        }
+        
+        private void read(SelectionKey key) throws IOException {
+            Connection connection = (Connection) key.attachment();
+            if (((SocketChannel) key.channel()).read(connection.rx) == -1)
+                throw new IOException("Connection closed");
+            process(key);
+        }
+        
+        /**
+         * Procesa los requerimientos completos del buffer de recepción
+         * mientras haya lugar en el de transmisión.
+         */
+        private void process(SelectionKey key) throws IOException {
+            Connection connection = (Connection) key.attachment();
+            ByteBuffer rx = connection.rx;
+            byte[] frame = rx.array();
+            int size = rx.position();
+            int offset = 0;
+            int length;
+            while (connection.tx.remaining() >= ModbusTCPParser.MBAP_UNIT_OFFSET + ModbusTCPParser.MBAP_MAX_LENGTH + 2 &&
+                    (length = ModbusTCPParser.frameLength(frame, offset, size - offset)) != 0){
+                if (length < 0)
+                    throw new IOException("Invalid MBAP header");
+                mListener.onRX(frame, offset, length);
+                processRequest(connection.tx, frame, offset, length);
+                offset += length;
+            }
+            rx.flip();
+            rx.position(offset);
+            rx.compact();
+            write(key);
+        }
+        
+        private void processRequest(ByteBuffer tx, byte[] frame, int offset, int length){
+            int transactionId = ModbusUtils.getWord(frame, offset);
+            int adu = offset + ModbusTCPParser.MBAP_UNIT_OFFSET;
+            int aduLength = length - ModbusTCPParser.MBAP_UNIT_OFFSET;
+            int begin = tx.position();
+            int size = 0;
+            int requestLength = ModbusSlaveParser.requestLength(frame, adu, aduLength);
+            if (requestLength == aduLength)
+                size = mListener.onRequest(frame, adu, tx.array(), begin + ModbusTCPParser.MBAP_UNIT_OFFSET);
+            if (size == 0){
+                ModbusResponse response;
+                if (requestLength == aduLength)
+                    response = ModbusSlave.dispatchRequest(mListener, ModbusSlaveParser.takeRequestFromADU(frame, adu));
+                else
+                    response = ModbusResponse.exception(frame[adu] & 0xFF, frame[adu + 1] & 0x7F, 
+                            ModbusSlaveParser.validFunction(frame[adu + 1] & 0xFF) ? ModbusExceptionResponse.ILLEGAL_DATA_VALUE : ModbusExceptionResponse.ILLEGAL_FUNCTION);
+                size = ModbusSlaveParser.response(tx.array(), begin + ModbusTCPParser.MBAP_UNIT_OFFSET, response) - 2;
+            }
+            if (size > 0){
+                ModbusTCPParser.putHeader(tx.array(), begin, transactionId, size);
+                mListener.onTX(tx.array(), begin, ModbusTCPParser.MBAP_UNIT_OFFSET + size);
+                tx.position(begin + ModbusTCPParser.MBAP_UNIT_OFFSET + size);
+            }
+        }
+        
+        private void write(SelectionKey key) throws IOException {
+            Connection connection = (Connection) key.attachment();
+            ByteBuffer tx = connection.tx;
+            if (tx.position() > 0){
+                tx.flip();
+                ((SocketChannel) key.channel()).write(tx);
+                tx.compact();
+            }
+            //con datos pendientes de transmisión no se lee hasta vaciar el buffer
+            key.interestOps(tx.position() > 0 ? SelectionKey.OP_WRITE : SelectionKey.OP_READ);
+        }
+    }
+}
@@ -0,0 +1,93 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2018 Luis Pichio.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+
+package com.luispichio.ajmodbus;
+
+/**
+ * Estimador de timeout de respuesta por esclavo a partir de los tiempos de
+ * respuesta observados (RFC 6298): SRTT y RTTVAR suavizados, timeout =
+ * SRTT + 4 * RTTVAR acotado entre un mínimo y un máximo. Cada timeout
+ * duplica el valor (hasta el máximo) hasta la siguiente muestra válida.
+ * Uso exclusivo del hilo del Maestro.
+ * 
+ * @author Luis Pichio | luispichio@gmail.com | https://sites.google.com/site/luispichio/ | https://github.com/luispichio
+ */
+class ModbusTimeOutEstimator {
+    private static final int UNITS = ModbusTypes.MODBUS_UNITS;
+    
+    private final long[] mSrtt = new long[UNITS];
+    private final long[] mRttVar = new long[UNITS];
+    private final int[] mBackoff = new int[UNITS];
+    
+    /**
+     * Incorpora una muestra.
+     * @param slaveAddress Dirección de esclavo
+     * @param rtt Tiempo de respuesta [us]
+     */
+    void sample(int slaveAddress, long rtt){
+        if (slaveAddress <= 0 || slaveAddress >= UNITS)
+            return;
+        rtt = Math.max(1, rtt);
+        if (mSrtt[slaveAddress] == 0){
+            mSrtt[slaveAddress] = rtt;
+            mRttVar[slaveAddress] = rtt / 2;
+        } else {
+            mRttVar[slaveAddress] += (Math.abs(mSrtt[slaveAddress] - rtt) - mRttVar[slaveAddress]) / 4;
+            mSrtt[slaveAddress] += (rtt - mSrtt[slaveAddress]) / 8;
+        }
+        mBackoff[slaveAddress] = 0;
+    }
+    
+    /**
+     * Registra un timeout (duplica el timeout del esclavo).
+     * @param slaveAddress Dirección de esclavo
+     */
+    void backoff(int slaveAddress){
+        if (slaveAddress > 0 && slaveAddress < UNITS && mBackoff[slaveAddress] < 16)
+            mBackoff[slaveAddress]++;
+    }
+    
+    /**
+     * @param slaveAddress Dirección de esclavo
+     * @param min Timeout mínimo [ms]
+     * @param max Timeout máximo [ms] (también utilizado sin muestras)
+     * @return Timeout [ms]
+     */
+    int timeOut(int slaveAddress, int min, int max){
+        if (slaveAddress <= 0 || slaveAddress >= UNITS || mSrtt[slaveAddress] == 0)
+            return max;
+        long rto = (mSrtt[slaveAddress] + 4 * mRttVar[slaveAddress] + 999) / 1000;
+        rto <<= mBackoff[slaveAddress];
+        return (int) Math.max(min, Math.min(max, rto));
+    }
+    
+    /**
+     * @param slaveAddress Dirección de esclavo
+     * @return Tiempo de respuesta suavizado [us] o 0 sin muestras
+     */
+    long srtt(int slaveAddress){
+        return slaveAddress > 0 && slaveAddress < UNITS ? mSrtt[slaveAddress] : 0;
+    }
+}
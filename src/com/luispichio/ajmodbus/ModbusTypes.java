@@ -30,6 +30,7 @@ package com.luispichio.ajmodbus;
  */
 public class ModbusTypes {
     public final static byte MODBUS_FUNCTION_READ_COILS = 0x01;
+    public final static byte MODBUS_FUNCTION_READ_DISCRETE_INPUTS = 0x02;
     public final static byte MODBUS_FUNCTION_READ_HOLDING_REGISTERS = 0x03;
     public final static byte MODBUS_FUNCTION_READ_INPUT_REGISTERS = 0x04;
     public final static byte MODBUS_FUNCTION_WRITE_SINGLE_COIL = 0x05;
@@ -37,4 +38,11 @@ public class ModbusTypes {
     public final static byte MODBUS_FUNCTION_WRITE_MULTIPLE_COILS = 0x0F;
     public final static byte MODBUS_FUNCTION_WRITE_MULTIPLE_REGISTERS = 0x10;
     public final static byte MODBUS_FUNCTION_READ_FILE_RECORD = 20;    
+    
+    /**
+     * Cantidad de direcciones de esclavo / unidad (0 .. 255): en Modbus TCP
+     * las unidades 248 .. 255 son válidas (255 es la usual de un equipo TCP).
+     * Dimensión de las tablas por esclavo.
+     */
+    public final static int MODBUS_UNITS = 256;
 }